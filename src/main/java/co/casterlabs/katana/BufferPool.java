@@ -0,0 +1,106 @@
+package co.casterlabs.katana;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.NonNull;
+
+/**
+ * Reusable transfer buffers, shared by everything. ThreadLocals don't work here
+ * since every request gets its own (virtual) thread.
+ */
+public class BufferPool {
+    private static final int[] SIZE_CLASSES = {
+            8 * 1024,
+            32 * 1024,
+            128 * 1024
+    };
+    private static final int[] MAX_POOLED = {
+            256,
+            64,
+            16
+    };
+
+    public static final int DIRECT_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_DIRECT = 32;
+
+    @SuppressWarnings("unchecked")
+    private static final Queue<byte[]>[] HEAP_POOLS = new Queue[SIZE_CLASSES.length];
+    private static final AtomicInteger[] HEAP_POOL_SIZES = new AtomicInteger[SIZE_CLASSES.length];
+
+    private static final Queue<ByteBuffer> DIRECT_POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger DIRECT_POOL_SIZE = new AtomicInteger();
+
+    static {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            HEAP_POOLS[i] = new ConcurrentLinkedQueue<>();
+            HEAP_POOL_SIZES[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * @param  expectedLength how many bytes are going to be transferred, or -1 if
+     *                        unknown. Small transfers get small buffers.
+     *
+     * @return                a buffer, make sure to {@link #release(byte[])} it.
+     */
+    public static byte[] acquire(long expectedLength) {
+        int sizeClass = SIZE_CLASSES.length - 1;
+        if (expectedLength >= 0) {
+            for (int i = 0; i < SIZE_CLASSES.length; i++) {
+                if (expectedLength <= SIZE_CLASSES[i]) {
+                    sizeClass = i;
+                    break;
+                }
+            }
+        }
+
+        byte[] buffer = HEAP_POOLS[sizeClass].poll();
+        if (buffer == null) {
+            return new byte[SIZE_CLASSES[sizeClass]];
+        }
+
+        HEAP_POOL_SIZES[sizeClass].decrementAndGet();
+        return buffer;
+    }
+
+    public static void release(@NonNull byte[] buffer) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (buffer.length != SIZE_CLASSES[i]) continue;
+
+            if (HEAP_POOL_SIZES[i].incrementAndGet() <= MAX_POOLED[i]) {
+                HEAP_POOLS[i].offer(buffer);
+            } else {
+                HEAP_POOL_SIZES[i].decrementAndGet(); // Full, let the GC have it.
+            }
+            return;
+        }
+    }
+
+    /**
+     * @return a cleared direct buffer of {@link #DIRECT_BUFFER_SIZE} bytes, make
+     *         sure to {@link #releaseDirect(ByteBuffer)} it.
+     */
+    public static ByteBuffer acquireDirect() {
+        ByteBuffer buffer = DIRECT_POOL.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+        }
+
+        DIRECT_POOL_SIZE.decrementAndGet();
+        return buffer.clear();
+    }
+
+    public static void releaseDirect(@NonNull ByteBuffer buffer) {
+        if (!buffer.isDirect() || (buffer.capacity() != DIRECT_BUFFER_SIZE)) return;
+
+        if (DIRECT_POOL_SIZE.incrementAndGet() <= MAX_POOLED_DIRECT) {
+            DIRECT_POOL.offer(buffer);
+        } else {
+            DIRECT_POOL_SIZE.decrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+package co.casterlabs.katana;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+
+/**
+ * Watches a directory (and optionally everything under it) for changes. Unlike
+ * {@link FileWatcher} this reports creations and deletions too.
+ */
+public abstract class DirectoryWatcher implements Closeable {
+    private static final FastLogger LOGGER = new FastLogger("DirectoryWatcher");
+
+    private final File directory;
+    private final boolean recursive;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+
+    private volatile WatchService service;
+    private volatile boolean alive = false;
+
+    public DirectoryWatcher(@NonNull File directory, boolean recursive) {
+        this.directory = directory;
+        this.recursive = recursive;
+    }
+
+    /**
+     * @param structural whether the file was created or deleted (as opposed to
+     *                   modified), which could change what other paths resolve
+     *                   to.
+     */
+    public abstract void onChange(Path path, boolean structural);
+
+    /**
+     * Events got dropped, assume that everything changed.
+     */
+    public abstract void onOverflow();
+
+    public synchronized void start() throws IOException {
+        if (this.service != null) return;
+
+        this.service = FileSystems.getDefault().newWatchService();
+        try {
+            this.register(this.service, this.directory.getCanonicalFile().toPath());
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+
+        this.alive = true;
+        WatchService service = this.service;
+        Thread.ofVirtual().name("Katana Directory Watcher - " + this.directory).start(() -> this.run(service));
+    }
+
+    /**
+     * @return whether or not we're still getting events. If not, you should fall
+     *         back to checking the files yourself.
+     */
+    public boolean isAlive() {
+        return this.alive;
+    }
+
+    private void register(WatchService service, Path path) throws IOException {
+        if (!this.recursive) {
+            this.registerOne(service, path);
+            return;
+        }
+
+        try (Stream<Path> walk = Files.walk(path)) {
+            for (Path dir : (Iterable<Path>) walk.filter(Files::isDirectory)::iterator) {
+                this.registerOne(service, dir);
+            }
+        }
+    }
+
+    private void registerOne(WatchService service, Path dir) throws IOException {
+        WatchKey key = dir.register(
+            service,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE,
+            StandardWatchEventKinds.ENTRY_MODIFY
+        );
+        this.keys.put(key, dir);
+    }
+
+    private void run(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Path dir = this.keys.get(key);
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if ((event.kind() == StandardWatchEventKinds.OVERFLOW) || (dir == null)) {
+                        this.onOverflow();
+                        continue;
+                    }
+
+                    Path path = dir.resolve((Path) event.context());
+                    boolean structural = event.kind() != StandardWatchEventKinds.ENTRY_MODIFY;
+
+                    if (this.recursive && (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) && Files.isDirectory(path)) {
+                        try {
+                            this.register(service, path);
+                        } catch (IOException e) {
+                            LOGGER.warn("Couldn't watch %s, changes to it will be missed:\n%s", path, e);
+                        }
+                    }
+
+                    this.onChange(path, structural);
+                }
+
+                if (!key.reset()) {
+                    this.keys.remove(key); // Deleted.
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ignored) {
+            // Closed.
+        } catch (Throwable t) {
+            LOGGER.severe("Stopped watching %s, falling back to polling:\n%s", this.directory, t);
+        } finally {
+            synchronized (this) {
+                // We might've been closed and restarted since, in which case that's not us.
+                if (this.service == service) {
+                    this.alive = false;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        this.alive = false;
+        if (this.service == null) return;
+
+        try {
+            this.service.close();
+        } catch (IOException ignored) {}
+        this.service = null;
+        this.keys.clear();
+    }
+
+}
@@ -1,6 +1,20 @@
 package co.casterlabs.katana;
 
 import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import co.casterlabs.katana.router.KatanaRouter;
+import co.casterlabs.katana.router.http.HttpRouter;
+import co.casterlabs.katana.router.http.cache.HttpCache;
+import co.casterlabs.katana.router.http.cache.RequestCoalescer;
+import co.casterlabs.katana.router.http.compression.ResponseCompressor;
+import co.casterlabs.katana.router.http.compression.StaticCompression;
+import co.casterlabs.katana.router.http.proxy.CircuitBreaker;
+import co.casterlabs.katana.router.http.proxy.ProxyTarget;
+import co.casterlabs.katana.router.http.servlets.HttpServlet;
+import co.casterlabs.katana.router.http.servlets.ProxyServlet;
+import co.casterlabs.katana.router.http.servlets.StaticServlet;
 
 import lombok.AllArgsConstructor;
 import xyz.e3ndr.consolidate.CommandEvent;
@@ -51,6 +65,145 @@ public class KatanaCommands implements CommandListener<Void> {
         this.katana.start();
     }
 
+    @Command(name = "cache", description = "Shows the response cache statistics of every proxy servlet.")
+    public void cache(CommandEvent<Void> event) {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("Proxy cache statistics:");
+
+        for (Entry<String, KatanaRouter<?>> entry : this.katana.getRouters().entrySet()) {
+            if (!(entry.getValue() instanceof HttpRouter)) continue;
+            HttpRouter router = (HttpRouter) entry.getValue();
+
+            for (HttpServlet servlet : router.getRoutes().getServlets()) {
+                if (!(servlet instanceof ProxyServlet)) continue;
+                HttpCache cache = ((ProxyServlet) servlet).getCache();
+                if (cache == null) continue;
+
+                RequestCoalescer coalescer = ((ProxyServlet) servlet).getCoalescer();
+
+                sb.append(
+                    String.format(
+                        "\n\t%s %s: hits=%d stale_hits=%d misses=%d revalidations=%d stores=%d disk_hits=%d disk_stores=%d entries=%d size=%dKB",
+                        entry.getKey(),
+                        servlet.getHostnames(),
+                        cache.getHits().get(),
+                        cache.getStaleHits().get(),
+                        cache.getMisses().get(),
+                        cache.getRevalidations().get(),
+                        cache.getStores().get(),
+                        cache.getDiskHits().get(),
+                        cache.getDiskStores().get(),
+                        cache.count(),
+                        cache.size() / 1024
+                    )
+                );
+
+                if (coalescer != null) {
+                    sb.append(
+                        String.format(
+                            " coalesced=%d coalesce_timeouts=%d",
+                            coalescer.getCoalesced().get(),
+                            coalescer.getTimeouts().get()
+                        )
+                    );
+                }
+            }
+        }
+
+        this.katana.getLogger().info(sb);
+    }
+
+    @Command(name = "upstream", description = "Shows the retry, hedging and circuit breaker statistics of every proxy servlet.")
+    public void upstream(CommandEvent<Void> event) {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("Proxy upstream statistics:");
+
+        for (Entry<String, KatanaRouter<?>> entry : this.katana.getRouters().entrySet()) {
+            if (!(entry.getValue() instanceof HttpRouter)) continue;
+            HttpRouter router = (HttpRouter) entry.getValue();
+
+            for (HttpServlet servlet : router.getRoutes().getServlets()) {
+                if (!(servlet instanceof ProxyServlet)) continue;
+                ProxyServlet proxy = (ProxyServlet) servlet;
+
+                sb.append(
+                    String.format(
+                        "\n\t%s %s: retries=%d retries_denied=%d hedges=%d hedge_wins=%d",
+                        entry.getKey(),
+                        servlet.getHostnames(),
+                        proxy.getRetries().get(),
+                        proxy.getRetriesDenied().get(),
+                        proxy.getHedges().get(),
+                        proxy.getHedgeWins().get()
+                    )
+                );
+
+                for (ProxyTarget target : proxy.getLoadBalancer().getTargets()) {
+                    CircuitBreaker breaker = target.getCircuitBreaker();
+                    if (breaker == null) continue;
+
+                    sb.append(
+                        String.format(
+                            "\n\t\t%s: breaker=%s trips=%d rejections=%d",
+                            target,
+                            breaker.getState(),
+                            breaker.getTrips().get(),
+                            breaker.getRejections().get()
+                        )
+                    );
+                }
+            }
+        }
+
+        this.katana.getLogger().info(sb);
+    }
+
+    @Command(name = "compression", description = "Shows the response compression statistics.")
+    public void compression(CommandEvent<Void> event) {
+        long bytesIn = ResponseCompressor.getBytesIn().get();
+        long bytesOut = ResponseCompressor.getBytesOut().get();
+
+        this.katana.getLogger().info(
+            "Response compression statistics: responses=%d in=%dKB out=%dKB ratio=%.2f time_compressing=%dms",
+            ResponseCompressor.getResponses().get(),
+            bytesIn / 1024,
+            bytesOut / 1024,
+            bytesOut == 0 ? 0 : (double) bytesIn / bytesOut,
+            TimeUnit.NANOSECONDS.toMillis(ResponseCompressor.getNanos().get())
+        );
+
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("Static compression statistics:");
+
+        for (Entry<String, KatanaRouter<?>> entry : this.katana.getRouters().entrySet()) {
+            if (!(entry.getValue() instanceof HttpRouter)) continue;
+            HttpRouter router = (HttpRouter) entry.getValue();
+
+            for (HttpServlet servlet : router.getRoutes().getServlets()) {
+                if (!(servlet instanceof StaticServlet)) continue;
+                StaticCompression compression = ((StaticServlet) servlet).getStaticCompression();
+
+                sb.append(
+                    String.format(
+                        "\n\t%s %s: sidecar_hits=%d variant_hits=%d variant_misses=%d variants=%d size=%dKB",
+                        entry.getKey(),
+                        servlet.getHostnames(),
+                        compression.getSidecarHits().get(),
+                        compression.getVariantHits().get(),
+                        compression.getVariantMisses().get(),
+                        compression.count(),
+                        compression.size() / 1024
+                    )
+                );
+            }
+        }
+
+        this.katana.getLogger().info(sb);
+    }
+
     @Command(name = "gc", description = "Tells Java to garbage collect.")
     public void gc(CommandEvent<Void> event) {
         System.gc();
@@ -0,0 +1,150 @@
+package co.casterlabs.katana;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.NonNull;
+
+/**
+ * A bounded, thread-safe cache with approximate LRU eviction. Reads never lock,
+ * once the cache overflows the least recently used ~10% of entries get evicted
+ * in one go by whichever thread got there first.
+ *
+ * By default the bound is a number of entries, give it a weigher to bound it by
+ * something else (e.g bytes).
+ */
+public class LruCache<K, V> {
+    private static final long TOUCH_GRANULARITY = 1_000_000; // 1ms, avoids hammering the access field.
+
+    private final ConcurrentHashMap<K, Node<V>> map = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicLong weight = new AtomicLong();
+    private final ToLongFunction<V> weigher;
+    private final long maxWeight;
+
+    public LruCache(int maxSize) {
+        this(maxSize, (v) -> 1);
+    }
+
+    public LruCache(long maxWeight, @NonNull ToLongFunction<V> weigher) {
+        assert maxWeight > 0 : "maxWeight must be greater than 0.";
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    public @Nullable V get(@NonNull K key) {
+        Node<V> node = this.map.get(key);
+        if (node == null) return null;
+
+        node.touch();
+        return node.value;
+    }
+
+    public void put(@NonNull K key, @NonNull V value) {
+        Node<V> node = new Node<>(value, this.weigher.applyAsLong(value));
+        this.weight.addAndGet(node.weight);
+
+        Node<V> replaced = this.map.put(key, node);
+        if (replaced != null) {
+            this.weight.addAndGet(-replaced.weight);
+        }
+
+        this.evictIfNeeded();
+    }
+
+    public V computeIfAbsent(@NonNull K key, @NonNull Function<K, V> loader) {
+        V value = this.get(key);
+        if (value != null) return value;
+
+        value = loader.apply(key);
+        this.put(key, value);
+        return value;
+    }
+
+    public @Nullable V remove(@NonNull K key) {
+        Node<V> node = this.map.remove(key);
+        if (node == null) return null;
+
+        this.weight.addAndGet(-node.weight);
+        return node.value;
+    }
+
+    public void clear() {
+        for (K key : this.map.keySet()) {
+            this.remove(key);
+        }
+    }
+
+    public int size() {
+        return this.map.size();
+    }
+
+    /**
+     * @return the total weight, which is the same as {@link #size()} if there's
+     *         no weigher.
+     */
+    public long weight() {
+        return this.weight.get();
+    }
+
+    private void evictIfNeeded() {
+        if (this.weight.get() <= this.maxWeight) return;
+        if (!this.evictionLock.tryLock()) return; // Someone else is on it.
+
+        try {
+            long target = this.maxWeight - Math.max(1, this.maxWeight / 10);
+
+            // Snapshot the access times, they may change while we're sorting.
+            List<Entry<K, Node<V>>> entries = new ArrayList<>(this.map.entrySet());
+            long[] accesses = new long[entries.size()];
+            Integer[] order = new Integer[entries.size()];
+            for (int i = 0; i < accesses.length; i++) {
+                accesses[i] = entries.get(i).getValue().lastAccess;
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong((i) -> accesses[i]));
+
+            for (int i : order) {
+                if (this.weight.get() <= target) break;
+
+                Entry<K, Node<V>> entry = entries.get(i);
+
+                if (this.map.remove(entry.getKey(), entry.getValue())) {
+                    this.weight.addAndGet(-entry.getValue().weight);
+                }
+            }
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    private static class Node<V> {
+        private final V value;
+        private final long weight;
+        private volatile long lastAccess = System.nanoTime();
+
+        private Node(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+
+        private void touch() {
+            long now = System.nanoTime();
+            if (now - this.lastAccess > TOUCH_GRANULARITY) {
+                this.lastAccess = now;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+package co.casterlabs.katana.router.http;
+
+import org.apache.commons.collections4.MultiValuedMap;
+import org.apache.commons.collections4.multimap.ArrayListValuedHashMap;
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.LruCache;
+import co.casterlabs.katana.router.http.servlets.HttpServlet;
+import lombok.NonNull;
+
+/**
+ * The combined CORS allow-list of a set of servlets, compiled into a single
+ * {@link HostnameRoutingTable}. Decisions are memoized per Origin since
+ * browsers send the exact same one over and over again.
+ */
+public class CorsPolicy {
+    private static final int DECISION_CACHE_SIZE = 256;
+    private static final String DENIED = "";
+
+    private final HostnameRoutingTable<HttpServlet> allowedHosts;
+    private final boolean allowsNothing;
+
+    private final LruCache<String, String> decisions = new LruCache<>(DECISION_CACHE_SIZE);
+
+    public CorsPolicy(@NonNull HttpServlet[] servlets) {
+        MultiValuedMap<String, HttpServlet> allowedHosts = new ArrayListValuedHashMap<>();
+        for (HttpServlet servlet : servlets) {
+            for (String regex : servlet.getCorsAllowedHosts()) {
+                // Convert from the internal format BACK to the user format.
+                String hostname = regex
+                    .replace(".*", "*")
+                    .replace("\\.", ".");
+
+                allowedHosts.put(hostname, servlet);
+            }
+        }
+
+        this.allowedHosts = new HostnameRoutingTable<>(allowedHosts);
+        this.allowsNothing = allowedHosts.isEmpty();
+    }
+
+    /**
+     * @return the value for the Access-Control-Allow-Origin header, or null if the
+     *         origin isn't allowed.
+     */
+    public @Nullable String getAllowedOrigin(@NonNull String origin) {
+        if (this.allowsNothing) return null;
+
+        String decision = this.decisions.get(origin);
+        if (decision == null) {
+            decision = this.decide(origin);
+            this.decisions.put(origin, decision);
+        }
+
+        return decision.isEmpty() ? null : decision;
+    }
+
+    private String decide(String origin) {
+        int protocolEnd = origin.indexOf("://");
+        if ((protocolEnd == -1) || (origin.indexOf("://", protocolEnd + 1) != -1)) {
+            return DENIED;
+        }
+
+        int hostStart = protocolEnd + "://".length();
+        int hostEnd = origin.indexOf('/', hostStart); // Strip protocol and uri
+        if (hostEnd == -1) hostEnd = origin.length();
+        if (hostEnd == hostStart) return DENIED;
+
+        String referer = origin.substring(hostStart, hostEnd).toLowerCase();
+        if (this.allowedHosts.get(referer).isEmpty()) {
+            return DENIED;
+        }
+
+        return origin.substring(0, hostEnd);
+    }
+
+}
@@ -0,0 +1,187 @@
+package co.casterlabs.katana.router.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+
+import org.apache.commons.collections4.MultiValuedMap;
+
+import lombok.NonNull;
+
+/**
+ * An immutable lookup structure for hostname patterns. Literal hostnames live
+ * in a hash map, `*.example.com` style wildcards live in a trie keyed by the
+ * reversed labels, and anything else (e.g `api-*.example.com`) is compiled
+ * into a {@link Pattern} once.
+ *
+ * Lookups don't allocate unless more than one pattern matches the host.
+ */
+public class HostnameRoutingTable<T> {
+    private final Map<String, List<T>> exact = new HashMap<>();
+    private final LabelNode<T> root = new LabelNode<>();
+    private final List<Entry<Pattern, T>> fallback = new ArrayList<>();
+
+    public HostnameRoutingTable(@NonNull MultiValuedMap<String, T> patterns) {
+        Map<String, List<T>> exact = new HashMap<>();
+
+        for (Entry<String, T> entry : patterns.entries()) {
+            String pattern = entry.getKey().toLowerCase();
+            T value = entry.getValue();
+
+            if (pattern.indexOf('*') == -1) {
+                exact.computeIfAbsent(pattern, (k) -> new ArrayList<>()).add(value);
+            } else if (pattern.equals("*")) {
+                this.root.values.add(value);
+            } else if (pattern.startsWith("*.") && (pattern.indexOf('*', 1) == -1)) {
+                String suffix = pattern.substring("*.".length());
+
+                LabelNode<T> node = this.root;
+                int end = suffix.length();
+                while (true) {
+                    int dot = suffix.lastIndexOf('.', end - 1);
+                    node = node.building.computeIfAbsent(suffix.substring(dot + 1, end), (k) -> new LabelNode<>());
+                    if (dot == -1) break;
+                    end = dot;
+                }
+
+                node.values.add(value);
+            } else {
+                this.fallback.add(Map.entry(compileGlob(pattern), value));
+            }
+        }
+
+        for (Entry<String, List<T>> entry : exact.entrySet()) {
+            this.exact.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+        }
+
+        this.root.freeze();
+    }
+
+    /**
+     * @param  host the lowercased hostname.
+     *
+     * @return      an unmodifiable list of every value whose pattern matches the
+     *              host.
+     */
+    public List<T> get(@NonNull String host) {
+        List<T> result = this.exact.getOrDefault(host, Collections.emptyList());
+        result = merge(result, this.root.values); // `*` matches everything.
+
+        // Walk the labels from right to left. A `*.example.com` pattern only matches
+        // if there's at least one more label to the left of `example`.
+        LabelNode<T> node = this.root;
+        int end = host.length();
+        while (true) {
+            int dot = host.lastIndexOf('.', end - 1);
+
+            node = node.child(host, dot + 1, end);
+            if ((node == null) || (dot == -1)) break;
+
+            result = merge(result, node.values);
+            end = dot;
+        }
+
+        for (Entry<Pattern, T> entry : this.fallback) {
+            if (entry.getKey().matcher(host).matches()) {
+                result = merge(result, List.of(entry.getValue()));
+            }
+        }
+
+        return result;
+    }
+
+    private static <T> List<T> merge(List<T> a, List<T> b) {
+        if (b.isEmpty()) return a;
+        if (a.isEmpty()) return b;
+
+        List<T> merged = new ArrayList<>(a.size() + b.size());
+        merged.addAll(a);
+        merged.addAll(b);
+        return Collections.unmodifiableList(merged);
+    }
+
+    private static Pattern compileGlob(String glob) {
+        StringBuilder regex = new StringBuilder();
+
+        int start = 0;
+        for (int star = glob.indexOf('*'); star != -1; star = glob.indexOf('*', start)) {
+            if (star > start) {
+                regex.append(Pattern.quote(glob.substring(start, star)));
+            }
+            regex.append(".*");
+            start = star + 1;
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+
+        return Pattern.compile(regex.toString());
+    }
+
+    private static class LabelNode<T> {
+        private Map<String, LabelNode<T>> building = new HashMap<>();
+        private List<T> values = new ArrayList<>();
+
+        // Open-addressed so that we can probe with a region of the hostname instead
+        // of having to substring it.
+        private String[] labels;
+        private LabelNode<T>[] children;
+        private int mask;
+
+        @SuppressWarnings("unchecked")
+        private void freeze() {
+            this.values = Collections.unmodifiableList(this.values);
+
+            if (!this.building.isEmpty()) {
+                int capacity = Integer.highestOneBit(this.building.size() * 2 + 1) << 1;
+
+                this.labels = new String[capacity];
+                this.children = new LabelNode[capacity];
+                this.mask = capacity - 1;
+
+                for (Entry<String, LabelNode<T>> entry : this.building.entrySet()) {
+                    int idx = spread(entry.getKey().hashCode()) & this.mask;
+                    while (this.labels[idx] != null) {
+                        idx = (idx + 1) & this.mask;
+                    }
+
+                    this.labels[idx] = entry.getKey();
+                    this.children[idx] = entry.getValue();
+                    entry.getValue().freeze();
+                }
+            }
+
+            this.building = null;
+        }
+
+        private LabelNode<T> child(String host, int start, int end) {
+            if (this.labels == null) return null;
+
+            // Same as String#hashCode(), just over a region.
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + host.charAt(i);
+            }
+
+            int len = end - start;
+            for (int idx = spread(hash) & this.mask;; idx = (idx + 1) & this.mask) {
+                String label = this.labels[idx];
+                if (label == null) return null;
+
+                if ((label.length() == len) && host.regionMatches(start, label, 0, len)) {
+                    return this.children[idx];
+                }
+            }
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+    }
+
+}
@@ -5,8 +5,7 @@ import java.io.IOException;
 import java.nio.file.Paths;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -14,17 +13,15 @@ import java.util.concurrent.TimeUnit;
 import javax.net.ssl.X509ExtendedKeyManager;
 import javax.net.ssl.X509ExtendedTrustManager;
 
-import org.apache.commons.collections4.MultiValuedMap;
-import org.apache.commons.collections4.multimap.ArrayListValuedHashMap;
-
 import co.casterlabs.commons.async.AsyncTask;
 import co.casterlabs.katana.CertificateAutoIssuer;
 import co.casterlabs.katana.CertificateAutoIssuer.IssuanceException;
 import co.casterlabs.katana.FileWatcher.MultiFileWatcher;
 import co.casterlabs.katana.Katana;
-import co.casterlabs.katana.Util;
 import co.casterlabs.katana.router.KatanaRouter;
 import co.casterlabs.katana.router.http.HttpRouterConfiguration.HttpSSLConfiguration;
+import co.casterlabs.katana.router.http.HttpRoutes.HostRoute;
+import co.casterlabs.katana.router.http.proxy.UpstreamPools;
 import co.casterlabs.katana.router.http.servlets.HttpServlet;
 import co.casterlabs.rhs.HttpMethod;
 import co.casterlabs.rhs.HttpServer;
@@ -54,7 +51,8 @@ import xyz.e3ndr.fastloggingframework.logging.LogLevel;
 
 @Getter
 public class HttpRouter implements HttpProtoHandler, WebsocketHandler, KatanaRouter<HttpRouterConfiguration> {
-    private MultiValuedMap<String, HttpServlet> hostnames = new ArrayListValuedHashMap<>();
+    private volatile HttpRoutes routes;
+    private UpstreamPools upstreamPools = new UpstreamPools();
     private boolean keepErrorStatus = true;
     private boolean allowInsecure = true;
     private HttpRouterConfiguration config;
@@ -179,15 +177,23 @@ public class HttpRouter implements HttpProtoHandler, WebsocketHandler, KatanaRou
 
     @Override
     public void loadConfig(HttpRouterConfiguration config) {
+        // Build the new routes completely before swapping them in, requests that are
+        // already in-flight will happily continue using the old ones.
+        HttpRoutes routes = new HttpRoutes(config.getServlets());
+        HttpRoutes oldRoutes = this.routes;
+
         this.config = config;
+        this.upstreamPools.configure(config.getUpstream());
 
-        this.hostnames.clear();
+        for (HttpServlet servlet : routes.getServlets()) {
+            servlet.onLoad(this);
+        }
 
-        for (HttpServlet servlet : this.config.getServlets()) {
-            for (String host : servlet.getHostnames()) {
-                String regex = host.toLowerCase().replace(".", "\\.").replace("*", ".*");
+        this.routes = routes;
 
-                this.hostnames.put(regex, servlet);
+        if (oldRoutes != null) {
+            for (HttpServlet servlet : oldRoutes.getServlets()) {
+                servlet.onUnload();
             }
         }
 
@@ -203,6 +209,10 @@ public class HttpRouter implements HttpProtoHandler, WebsocketHandler, KatanaRou
     @SneakyThrows
     @Override
     public void start() {
+        // Load the servlets first, that way anything they warm up is ready before we accept connections.
+        for (HttpServlet servlet : this.routes.getServlets()) {
+            servlet.onLoad(this);
+        }
         if ((this.serverSecure != null) && !this.serverSecure.isAlive()) {
             if (this.forceHttps) this.logger.info("Forcing secure connections.");
 
@@ -268,6 +278,11 @@ public class HttpRouter implements HttpProtoHandler, WebsocketHandler, KatanaRou
         if (this.certificateWatcher != null) {
             this.certificateWatcher.close();
         }
+        if (this.routes != null) { // We might be stopped before we've even loaded.
+            for (HttpServlet servlet : this.routes.getServlets()) {
+                servlet.onUnload();
+            }
+        }
         if (this.serverSecure != null) {
             this.serverSecure.stop(disconnectClients);
             this.logger.info("Stopped secure server on port %d.", this.serverSecure.port());
@@ -308,26 +323,23 @@ public class HttpRouter implements HttpProtoHandler, WebsocketHandler, KatanaRou
             }
         }
 
-        List<HttpServlet> servlets = Util.regexGet(this.hostnames, session.uri().host.toLowerCase());
-        Collections.sort(servlets, (HttpServlet s1, HttpServlet s2) -> {
-            return s1.getPriority() > s2.getPriority() ? -1 : 1;
-        });
-        session.logger().debug("Canidate servlets: %s", servlets);
+        HostRoute route = this.routes.getRoute(session.uri().host.toLowerCase());
+        session.logger().debug("Canidate servlets: %s", Arrays.asList(route.getServlets()));
 
         // Browser is doing a CORS probe, let them.
         if (session.method() == HttpMethod.OPTIONS) {
             HttpResponse response = HttpResponse.newFixedLengthResponse(StandardHttpStatus.NO_CONTENT);
-            HttpUtil.handleCors(servlets, session, response);
+            HttpUtil.handleCors(route.getCors(), session, response);
             return response;
         }
 
-        HttpResponse response = this.iterateConfigs(session, servlets);
+        HttpResponse response = this.iterateConfigs(session, route);
 
         if (response == null) {
             return HttpUtil.errorResponse(session, StandardHttpStatus.INTERNAL_ERROR, "No servlet available.");
         }
 
-        HttpUtil.handleCors(servlets, session, response);
+        HttpUtil.handleCors(route.getCors(), session, response);
 
         return response;
     }
@@ -335,34 +347,25 @@ public class HttpRouter implements HttpProtoHandler, WebsocketHandler, KatanaRou
     // Also interacts with servlets
     @Override
     public WebsocketResponse handle(WebsocketSession session) {
-        List<HttpServlet> servlets = Util.regexGet(this.hostnames, session.uri().host.toLowerCase());
-        Collections.sort(servlets, (HttpServlet s1, HttpServlet s2) -> {
-            return s1.getPriority() > s2.getPriority() ? -1 : 1;
-        });
+        HostRoute route = this.routes.getRoute(session.uri().host.toLowerCase());
 
-        return this.iterateWebsocketConfigs(session, servlets);
+        return this.iterateWebsocketConfigs(session, route);
     }
 
     @SneakyThrows
-    private HttpResponse iterateConfigs(HttpSession session, Collection<HttpServlet> servlets) {
-        for (HttpServlet servlet : servlets) {
-            if (servlet.matchHttp(session, this)) {
-                return servlet.serveHttp(session, this);
-            }
-        }
+    private HttpResponse iterateConfigs(HttpSession session, HostRoute route) {
+        HttpServlet servlet = route.resolveHttp(session.uri().path);
+        if (servlet == null) return null;
 
-        return null;
+        return servlet.serveHttp(session, this);
     }
 
     @SneakyThrows
-    private WebsocketResponse iterateWebsocketConfigs(WebsocketSession session, Collection<HttpServlet> servlets) {
-        for (HttpServlet servlet : servlets) {
-            if (servlet.matchWebsocket(session, this)) {
-                return servlet.serveWebsocket(session, this);
-            }
-        }
+    private WebsocketResponse iterateWebsocketConfigs(WebsocketSession session, HostRoute route) {
+        HttpServlet servlet = route.resolveWebsocket(session.uri().path);
+        if (servlet == null) return null;
 
-        return null;
+        return servlet.serveWebsocket(session, this);
     }
 
     @Override
@@ -5,6 +5,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.jetbrains.annotations.Nullable;
+
 import co.casterlabs.katana.CertificateAutoIssuer.IssueMethod;
 import co.casterlabs.katana.Katana;
 import co.casterlabs.katana.router.KatanaRouterConfiguration;
@@ -20,7 +22,9 @@ import co.casterlabs.rakurai.json.element.JsonElement;
 import co.casterlabs.rakurai.json.element.JsonObject;
 import co.casterlabs.rakurai.json.element.JsonString;
 import co.casterlabs.rakurai.json.serialization.JsonParseException;
+import co.casterlabs.rakurai.json.validation.JsonValidate;
 import co.casterlabs.rakurai.json.validation.JsonValidationException;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 
 @Getter
@@ -39,6 +43,13 @@ public class HttpRouterConfiguration implements KatanaRouterConfiguration {
     @JsonField("ssl")
     private HttpSSLConfiguration SSL = new HttpSSLConfiguration();
 
+    @JsonField("upstream")
+    private HttpUpstreamConfiguration upstream = new HttpUpstreamConfiguration();
+
+    // The default for every servlet, see `response_compression` below.
+    @JsonField("compression")
+    private HttpCompressionConfiguration compression = new HttpCompressionConfiguration();
+
     private @JsonExclude List<HttpServlet> servlets = new ArrayList<>();
 
     @Override
@@ -106,6 +117,10 @@ public class HttpRouterConfiguration implements KatanaRouterConfiguration {
                 }
             }
 
+            if (config.containsKey("response_compression")) {
+                servlet.setCompression(Rson.DEFAULT.fromJson(config.get("response_compression"), HttpCompressionConfiguration.class));
+            }
+
             if (config.containsKey("cors_allowed_hosts")) {
                 for (JsonElement ach : config.getArray("cors_allowed_hosts")) {
                     String hostname = ach.getAsString();
@@ -152,6 +167,10 @@ public class HttpRouterConfiguration implements KatanaRouterConfiguration {
                 .put("hostnames", hostnames)
                 .put("cors_allowed_hosts", corsAllowedHosts);
 
+            if (servlet.getCompression() != null) {
+                asObject.put("response_compression", Rson.DEFAULT.toJson(servlet.getCompression()));
+            }
+
             // Copy the config in.
             JsonObject config = (JsonObject) Rson.DEFAULT.toJson(servlet.getConfig());
             config.entrySet().forEach((e) -> asObject.put(e.getKey(), e.getValue()));
@@ -184,6 +203,78 @@ public class HttpRouterConfiguration implements KatanaRouterConfiguration {
 
     }
 
+    @EqualsAndHashCode
+    @JsonClass(exposeAll = true)
+    public static class HttpUpstreamConfiguration {
+        @JsonField("max_idle_connections")
+        public int maxIdleConnections = 32;
+
+        @JsonField("keep_alive_seconds")
+        public int keepAliveSeconds = 300;
+
+        @JsonField("max_requests_per_host")
+        public int maxRequestsPerHost = 0; // 0 = Unlimited
+
+        @JsonField("acquire_timeout_seconds")
+        public int acquireTimeoutSeconds = 30;
+
+        @JsonValidate
+        private void $validate() {
+            assert this.maxIdleConnections >= 0 : "The `max_idle_connections` option must not be negative.";
+            assert this.keepAliveSeconds > 0 : "The `keep_alive_seconds` option must be greater than 0.";
+            assert this.maxRequestsPerHost >= 0 : "The `max_requests_per_host` option must not be negative.";
+            assert this.acquireTimeoutSeconds >= 0 : "The `acquire_timeout_seconds` option must not be negative.";
+        }
+
+    }
+
+    @JsonClass(exposeAll = true)
+    public static class HttpCompressionConfiguration {
+        public boolean enabled = false;
+
+        public int level = 6;
+
+        @JsonField("min_size")
+        public int minSize = 1024;
+
+        // Either exact, `type/*`, or `*+suffix`.
+        @JsonField("mime_types")
+        public String[] mimeTypes = {
+                "text/*",
+                "application/json",
+                "application/javascript",
+                "application/xml",
+                "application/wasm",
+                "image/svg+xml",
+                "*+json",
+                "*+xml"
+        };
+
+        @JsonValidate
+        private void $validate() {
+            assert (this.level >= 1) && (this.level <= 9) : "The `level` option must be between 1 and 9.";
+            assert this.minSize >= 0 : "The `min_size` option must not be negative.";
+            assert this.mimeTypes != null : "The `mime_types` option must be set.";
+        }
+
+        public boolean isCompressible(@Nullable String contentType) {
+            if (contentType == null) return false;
+
+            String mime = contentType.split(";")[0].trim().toLowerCase();
+            for (String pattern : this.mimeTypes) {
+                if (pattern.endsWith("/*")) {
+                    if (mime.startsWith(pattern.substring(0, pattern.length() - 1))) return true;
+                } else if (pattern.startsWith("*")) {
+                    if (mime.endsWith(pattern.substring(1))) return true;
+                } else if (mime.equals(pattern)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
     @JsonClass(exposeAll = true)
     public static class HttpSSLAutoIssueConfiguration {
         public boolean enabled = false;
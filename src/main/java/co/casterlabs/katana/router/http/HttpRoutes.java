@@ -0,0 +1,110 @@
+package co.casterlabs.katana.router.http;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.collections4.MultiValuedMap;
+import org.apache.commons.collections4.multimap.ArrayListValuedHashMap;
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.LruCache;
+import co.casterlabs.katana.router.http.servlets.HttpServlet;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * An immutable snapshot of everything the router needs to dispatch a request.
+ * A new one gets built off to the side whenever the config is reloaded and is
+ * then swapped in all at once, so in-flight requests never see a half-built
+ * table.
+ */
+@Getter
+public class HttpRoutes {
+    private static final int WILDCARD_HOST_CACHE_SIZE = 2048;
+    private static final Comparator<HttpServlet> PRIORITY_ORDER = Comparator.comparingInt(HttpServlet::getPriority).reversed();
+
+    private final List<HttpServlet> servlets;
+    private final HostnameRoutingTable<HttpServlet> hostnames;
+
+    private final Map<String, HostRoute> literalHostRoutes;
+    private final LruCache<String, HostRoute> wildcardHostRoutes = new LruCache<>(WILDCARD_HOST_CACHE_SIZE);
+
+    // Lots of hosts tend to share the exact same candidates (e.g `*`), so we only
+    // build the path indexes once per distinct set.
+    private final Map<List<HttpServlet>, HostRoute> routesByCandidates = new ConcurrentHashMap<>();
+
+    public HttpRoutes(@NonNull List<HttpServlet> servlets) {
+        this.servlets = List.copyOf(servlets);
+
+        MultiValuedMap<String, HttpServlet> hostnames = new ArrayListValuedHashMap<>();
+        for (HttpServlet servlet : this.servlets) {
+            for (String host : servlet.getHostnames()) {
+                hostnames.put(host.toLowerCase(), servlet);
+            }
+        }
+        this.hostnames = new HostnameRoutingTable<>(hostnames);
+
+        // Literal hostnames are known ahead of time, so we can resolve (and sort) their
+        // candidates right now. Everything else gets memoized as it's requested.
+        Map<String, HostRoute> literalHostRoutes = new HashMap<>();
+        for (String host : hostnames.keySet()) {
+            if (host.indexOf('*') != -1) continue;
+            literalHostRoutes.put(host, this.resolve(host));
+        }
+        this.literalHostRoutes = Map.copyOf(literalHostRoutes);
+    }
+
+    /**
+     * @param host the lowercased hostname.
+     */
+    public HostRoute getRoute(@NonNull String host) {
+        HostRoute route = this.literalHostRoutes.get(host);
+        if (route != null) return route;
+
+        return this.wildcardHostRoutes.computeIfAbsent(host, this::resolve);
+    }
+
+    private HostRoute resolve(String host) {
+        HttpServlet[] candidates = this.hostnames.get(host)
+            .stream()
+            .distinct()
+            .sorted(PRIORITY_ORDER) // Stable, so ties keep their config order.
+            .toArray(HttpServlet[]::new);
+
+        return this.routesByCandidates.computeIfAbsent(Arrays.asList(candidates), (l) -> new HostRoute(candidates));
+    }
+
+    @Getter
+    public static class HostRoute {
+        /**
+         * The candidate servlets, highest priority first. Do NOT modify this, it's
+         * shared.
+         */
+        private final HttpServlet[] servlets;
+
+        private final PathRoutingIndex<HttpServlet> httpIndex;
+        private final PathRoutingIndex<HttpServlet> websocketIndex;
+        private final CorsPolicy cors;
+
+        private HostRoute(HttpServlet[] servlets) {
+            this.servlets = servlets;
+            this.httpIndex = new PathRoutingIndex<>(servlets, HttpServlet::getHttpRoute);
+            this.websocketIndex = new PathRoutingIndex<>(servlets, HttpServlet::getWebsocketRoute);
+            this.cors = new CorsPolicy(servlets);
+        }
+
+        public @Nullable HttpServlet resolveHttp(@NonNull String path) {
+            return this.httpIndex.resolve(path);
+        }
+
+        public @Nullable HttpServlet resolveWebsocket(@NonNull String path) {
+            return this.websocketIndex.resolve(path);
+        }
+
+    }
+
+}
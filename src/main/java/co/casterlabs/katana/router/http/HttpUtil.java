@@ -1,13 +1,23 @@
 package co.casterlabs.katana.router.http;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
+
+import org.jetbrains.annotations.Nullable;
 
-import co.casterlabs.katana.Util;
-import co.casterlabs.katana.router.http.servlets.HttpServlet;
 import co.casterlabs.rhs.HttpMethod;
 import co.casterlabs.rhs.HttpStatus;
+import co.casterlabs.rhs.HttpStatus.StandardHttpStatus;
 import co.casterlabs.rhs.protocol.HeaderValue;
 import co.casterlabs.rhs.protocol.http.HttpResponse;
 import co.casterlabs.rhs.protocol.http.HttpSession;
@@ -15,6 +25,10 @@ import co.casterlabs.rhs.protocol.http.HttpSession;
 public class HttpUtil {
     private static final String ERROR_HTML = "<!DOCTYPE html><html><head><title>$RESPONSECODE</title></head><body><h1>$RESPONSECODE</h1><p>$DESCRIPTION</p><br/><p><i>Running Casterlabs Katana, $ADDRESS</i></p></body></html>";
 
+    // RFC_1123_DATE_TIME doesn't zero pad the day, which HTTP requires.
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static final String ALLOWED_HEADERS = "Authorization, *";
     private static final String ALLOWED_METHODS;
 
     static {
@@ -26,26 +40,197 @@ public class HttpUtil {
         ALLOWED_METHODS = String.join(", ", methods);
     }
 
-    public static void handleCors(Collection<HttpServlet> servlets, HttpSession session, HttpResponse response) {
+    public static void handleCors(CorsPolicy cors, HttpSession session, HttpResponse response) {
         HeaderValue originHeader = session.headers().getSingle("Origin");
 
         if (originHeader == null) return;
 
-        String[] split = originHeader.raw().split("://");
+        String allowedOrigin = cors.getAllowedOrigin(originHeader.raw());
+
+        if (allowedOrigin != null) {
+            response.header("Access-Control-Allow-Origin", allowedOrigin);
+            response.header("Access-Control-Allow-Methods", ALLOWED_METHODS);
+            response.header("Access-Control-Allow-Headers", ALLOWED_HEADERS);
+//            session.getLogger().debug("Added CORS declaration.");
+        }
+    }
+
+    /**
+     * HTTP/2 doesn't have reason phrases, so we fill in the standard one if the
+     * upstream didn't give us one.
+     */
+    public static HttpStatus adaptStatus(int code, String message) {
+        if ((message == null) || message.isEmpty()) {
+            for (StandardHttpStatus status : StandardHttpStatus.values()) {
+                if (status.statusCode() == code) {
+                    return status;
+                }
+            }
+        }
+
+        return HttpStatus.adapt(code, message);
+    }
+
+    /**
+     * @return the q-value the Accept-Encoding header gives the coding, honoring
+     *         the `*` wildcard (RFC 9110 section 12.5.3). 0 means not acceptable.
+     */
+    public static double encodingQuality(String acceptEncoding, String coding) {
+        double wildcard = 0;
 
-        if (split.length == 2) {
-            String protocol = split[0];
-            String referer = split[1].split("/")[0]; // Strip protocol and uri
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String name = params[0].trim().toLowerCase();
 
-            for (HttpServlet servlet : servlets) {
-                if (Util.regexContains(servlet.getCorsAllowedHosts(), referer)) {
-                    response.header("Access-Control-Allow-Origin", protocol + "://" + referer);
-                    response.header("Access-Control-Allow-Methods", ALLOWED_METHODS);
-                    response.header("Access-Control-Allow-Headers", "Authorization, *");
-//                    session.getLogger().debug("Added CORS declaration.");
-                    break;
+            double quality = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim().toLowerCase();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
                 }
             }
+
+            if (name.equals(coding)) {
+                return quality;
+            } else if (name.equals("*")) {
+                wildcard = quality;
+            }
+        }
+
+        return wildcard;
+    }
+
+    /**
+     * @return the mime type of the file based on its name, or null if unknown.
+     */
+    public static @Nullable String guessMime(File file) {
+        String mime = URLConnection.guessContentTypeFromName(file.getName());
+        if (mime != null) return mime;
+
+        try {
+            return Files.probeContentType(file.toPath());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Percent-decodes a request path and removes any `.`, `..` and empty segments
+     * in a single pass, e.g `/a/./b/%2e%2e//c/` becomes `/a/c`. `..` can't go
+     * above the root and backslashes count as separators, so the result is always
+     * safe to resolve against a directory. Unlike URLDecoder, `+` is left alone.
+     *
+     * @return the normalized path (always starting with a slash and never ending
+     *         with one, unless it's the root), or null if the path is malformed.
+     */
+    public static @Nullable String normalizePath(String path) {
+        int length = path.length();
+        char[] out = new char[length + 2];
+        out[0] = '/';
+        int written = 1;
+        int segmentStart = 1;
+
+        for (int i = 0; i <= length; i++) {
+            int c;
+            if (i == length) {
+                c = '/'; // Finishes the last segment.
+            } else if (path.charAt(i) == '%') {
+                int b = hexByte(path, i);
+                if (b == -1) return null;
+                i += 2;
+
+                if (b < 0x80) {
+                    c = b;
+                } else {
+                    // Multi-byte UTF-8, the continuation bytes have to be escaped too.
+                    int extra;
+                    if ((b & 0xE0) == 0xC0) {
+                        extra = 1;
+                        c = b & 0x1F;
+                    } else if ((b & 0xF0) == 0xE0) {
+                        extra = 2;
+                        c = b & 0x0F;
+                    } else if ((b & 0xF8) == 0xF0) {
+                        extra = 3;
+                        c = b & 0x07;
+                    } else {
+                        return null;
+                    }
+
+                    for (int e = 0; e < extra; e++) {
+                        if ((i + 1 >= length) || (path.charAt(i + 1) != '%')) return null;
+                        int cont = hexByte(path, i + 1);
+                        if ((cont == -1) || ((cont & 0xC0) != 0x80)) return null;
+                        c = (c << 6) | (cont & 0x3F);
+                        i += 3;
+                    }
+
+                    if (!Character.isValidCodePoint(c) || (c < (extra == 1 ? 0x80 : extra == 2 ? 0x800 : 0x10000)) || ((c >= 0xD800) && (c <= 0xDFFF))) {
+                        return null; // Overlong, out of range or a surrogate.
+                    }
+                }
+            } else {
+                c = path.charAt(i);
+            }
+
+            if (c == 0) return null;
+
+            if ((c != '/') && (c != '\\')) {
+                if (Character.isSupplementaryCodePoint(c)) {
+                    out[written++] = Character.highSurrogate(c);
+                    out[written++] = Character.lowSurrogate(c);
+                } else {
+                    out[written++] = (char) c;
+                }
+                continue;
+            }
+
+            // End of a segment.
+            int segmentLength = written - segmentStart;
+            if ((segmentLength == 1) && (out[segmentStart] == '.')) {
+                written = segmentStart;
+            } else if ((segmentLength == 2) && (out[segmentStart] == '.') && (out[segmentStart + 1] == '.')) {
+                written = segmentStart;
+                if (written > 1) {
+                    // Pop the previous segment.
+                    written--;
+                    while (out[written - 1] != '/') written--;
+                }
+            } else if (segmentLength > 0) {
+                out[written++] = '/';
+            }
+            segmentStart = written;
+        }
+
+        return new String(out, 0, (written > 1) ? written - 1 : 1);
+    }
+
+    private static int hexByte(String str, int percent) {
+        if (percent + 2 >= str.length()) return -1;
+
+        int high = Character.digit(str.charAt(percent + 1), 16);
+        int low = Character.digit(str.charAt(percent + 2), 16);
+        if ((high == -1) || (low == -1)) return -1;
+
+        return (high << 4) | low;
+    }
+
+    public static String formatDate(long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * @return the date in millis, or -1 if it's invalid.
+     */
+    public static long parseDate(String date) {
+        try {
+            return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
         }
     }
 
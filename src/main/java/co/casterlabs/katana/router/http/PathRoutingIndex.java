@@ -0,0 +1,257 @@
+package co.casterlabs.katana.router.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.NonNull;
+
+/**
+ * Resolves the highest priority servlet for a path in a single pass. Literal
+ * paths and prefixes live in a radix tree, the remaining regexes are combined
+ * into one alternation (in priority order) so the regex engine only has to run
+ * once.
+ */
+public class PathRoutingIndex<T> {
+    private static final int NONE = Integer.MAX_VALUE;
+    private static final Pattern BACKREFERENCES = Pattern.compile("\\\\[1-9]|\\\\k<|\\(\\?<[a-zA-Z]");
+
+    private final T[] candidates;
+    private final RoutePattern[] routes;
+
+    private final RadixNode root = new RadixNode("");
+    private int any = NONE;
+
+    private @Nullable Pattern combined;
+    private int[] combinedGroups; // The capture group of each alternative.
+    private int[] combinedIndices; // The candidate index of each alternative.
+    private int firstRegex = NONE;
+
+    // Patterns that can't safely be combined (e.g they use backreferences).
+    private final List<Integer> standaloneIndices = new ArrayList<>();
+
+    /**
+     * @param candidates the candidates, highest priority first.
+     * @param routeOf    the route for a candidate, or null if that candidate should
+     *                   never be selected.
+     */
+    public PathRoutingIndex(@NonNull T[] candidates, @NonNull Function<T, RoutePattern> routeOf) {
+        this.candidates = candidates;
+        this.routes = new RoutePattern[candidates.length];
+
+        List<Integer> regexIndices = new ArrayList<>();
+        List<Pattern> regexes = new ArrayList<>();
+
+        for (int idx = 0; idx < candidates.length; idx++) {
+            RoutePattern route = routeOf.apply(candidates[idx]);
+            if (route == null) continue;
+            this.routes[idx] = route;
+
+            switch (route.getType()) {
+                case ANY:
+                    this.any = Math.min(this.any, idx);
+                    break;
+
+                case LITERAL:
+                    this.root.insert(route.getValue(), false, idx);
+                    break;
+
+                case PREFIX:
+                    this.root.insert(route.getValue(), true, idx);
+                    break;
+
+                case REGEX:
+                    this.firstRegex = Math.min(this.firstRegex, idx);
+
+                    if (BACKREFERENCES.matcher(route.getValue()).find()) {
+                        this.standaloneIndices.add(idx);
+                    } else {
+                        regexIndices.add(idx);
+                        regexes.add(route.getPattern());
+                    }
+                    break;
+            }
+        }
+
+        if (!regexes.isEmpty()) {
+            this.combine(regexIndices, regexes);
+        }
+    }
+
+    private void combine(List<Integer> indices, List<Pattern> regexes) {
+        StringBuilder alternation = new StringBuilder();
+        int[] groups = new int[regexes.size()];
+        int group = 1;
+
+        for (int i = 0; i < regexes.size(); i++) {
+            if (i > 0) alternation.append('|');
+            alternation.append('(').append(regexes.get(i).pattern()).append(')');
+
+            groups[i] = group;
+            group += 1 + regexes.get(i).matcher("").groupCount();
+        }
+
+        try {
+            this.combined = Pattern.compile(alternation.toString());
+            this.combinedGroups = groups;
+            this.combinedIndices = indices.stream().mapToInt(Integer::intValue).toArray();
+        } catch (PatternSyntaxException e) {
+            // Shouldn't happen, but if it does we'll just evaluate them one by one.
+            this.standaloneIndices.addAll(indices);
+            this.standaloneIndices.sort(null);
+        }
+    }
+
+    public @Nullable T resolve(@NonNull String path) {
+        int best = Math.min(this.any, this.root.lookup(path));
+
+        // Regexes are the expensive part, only bother if one of them could win.
+        if (this.firstRegex < best) {
+            if (this.combined != null) {
+                Matcher matcher = this.combined.matcher(path);
+
+                if (matcher.matches()) {
+                    // The engine tries alternatives in order, so the first one that participated
+                    // is the highest priority match.
+                    for (int i = 0; i < this.combinedGroups.length; i++) {
+                        if (matcher.start(this.combinedGroups[i]) != -1) {
+                            best = Math.min(best, this.combinedIndices[i]);
+                            break;
+                        }
+                    }
+                }
+            }
+
+            for (int idx : this.standaloneIndices) {
+                if (idx >= best) break;
+
+                if (this.routes[idx].matches(path)) {
+                    best = idx;
+                    break;
+                }
+            }
+        }
+
+        return best == NONE ? null : this.candidates[best];
+    }
+
+    private static class RadixNode {
+        private static final RadixNode[] EMPTY = new RadixNode[0];
+
+        private String label;
+        private RadixNode[] children = EMPTY; // Sorted by the first char of their label.
+
+        private int literal = NONE;
+        private int prefix = NONE;
+
+        private RadixNode(String label) {
+            this.label = label;
+        }
+
+        private void insert(String key, boolean isPrefix, int idx) {
+            RadixNode node = this;
+            int pos = 0;
+
+            while (pos < key.length()) {
+                RadixNode child = node.find(key.charAt(pos));
+
+                if (child == null) {
+                    child = new RadixNode(key.substring(pos));
+                    node.add(child);
+                    node = child;
+                    break;
+                }
+
+                int common = 0;
+                while ((common < child.label.length()) && (pos + common < key.length()) && (child.label.charAt(common) == key.charAt(pos + common))) {
+                    common++;
+                }
+
+                if (common < child.label.length()) {
+                    // Split the edge so that our key ends on a node.
+                    int childIdx = node.indexOf(child.label.charAt(0));
+                    RadixNode split = new RadixNode(child.label.substring(0, common));
+                    child.label = child.label.substring(common);
+                    split.children = new RadixNode[] {
+                            child
+                    };
+                    node.children[childIdx] = split;
+                    child = split;
+                }
+
+                node = child;
+                pos += common;
+            }
+
+            if (isPrefix) {
+                node.prefix = Math.min(node.prefix, idx);
+            } else {
+                node.literal = Math.min(node.literal, idx);
+            }
+        }
+
+        private int lookup(String path) {
+            RadixNode node = this;
+            int pos = 0;
+            int best = NONE;
+
+            while (true) {
+                best = Math.min(best, node.prefix);
+
+                if (pos == path.length()) {
+                    return Math.min(best, node.literal);
+                }
+
+                RadixNode child = node.find(path.charAt(pos));
+                if ((child == null) || !path.startsWith(child.label, pos)) {
+                    return best;
+                }
+
+                node = child;
+                pos += child.label.length();
+            }
+        }
+
+        private @Nullable RadixNode find(char c) {
+            int idx = this.indexOf(c);
+            return idx < 0 ? null : this.children[idx];
+        }
+
+        private int indexOf(char c) {
+            int low = 0;
+            int high = this.children.length - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char midC = this.children[mid].label.charAt(0);
+
+                if (midC < c) {
+                    low = mid + 1;
+                } else if (midC > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+
+            return -(low + 1);
+        }
+
+        private void add(RadixNode child) {
+            int insertAt = -(this.indexOf(child.label.charAt(0)) + 1);
+
+            RadixNode[] children = Arrays.copyOf(this.children, this.children.length + 1);
+            System.arraycopy(children, insertAt, children, insertAt + 1, this.children.length - insertAt);
+            children[insertAt] = child;
+            this.children = children;
+        }
+
+    }
+
+}
@@ -0,0 +1,98 @@
+package co.casterlabs.katana.router.http;
+
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * A path that a servlet is willing to serve. User supplied regexes get
+ * analyzed up front, so that the common cases (`/exact/path` and `/prefix/.*`)
+ * never have to touch the regex engine. Everything else is compiled exactly
+ * once.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class RoutePattern {
+    public static final RoutePattern ANY = new RoutePattern(Type.ANY, "", null);
+
+    private static final String REGEX_METACHARS = "[](){}.*+?^$|";
+
+    private final Type type;
+    private final String value;
+    private final @Nullable Pattern pattern;
+
+    public static RoutePattern literal(@NonNull String path) {
+        return new RoutePattern(Type.LITERAL, path, null);
+    }
+
+    public static RoutePattern prefix(@NonNull String prefix) {
+        if (prefix.isEmpty()) return ANY;
+        return new RoutePattern(Type.PREFIX, prefix, null);
+    }
+
+    /**
+     * Turns a user supplied regex into the cheapest equivalent pattern.
+     */
+    public static RoutePattern regex(@NonNull String regex) {
+        StringBuilder literal = new StringBuilder();
+
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                // Escaped punctuation (e.g `\.`) is just a literal, anything else (e.g `\d`) is
+                // a character class.
+                if ((i + 1 < regex.length()) && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    literal.append(regex.charAt(++i));
+                    continue;
+                }
+            } else if ((c == '.') && (i == regex.length() - 2) && (regex.charAt(i + 1) == '*')) {
+                return prefix(literal.toString());
+            } else if (REGEX_METACHARS.indexOf(c) == -1) {
+                literal.append(c);
+                continue;
+            }
+
+            return new RoutePattern(Type.REGEX, regex, Pattern.compile(regex));
+        }
+
+        return literal(literal.toString());
+    }
+
+    public boolean matches(@NonNull String path) {
+        switch (this.type) {
+            case ANY:
+                return true;
+
+            case LITERAL:
+                return path.equals(this.value);
+
+            case PREFIX:
+                return path.startsWith(this.value);
+
+            case REGEX:
+                return this.pattern.matcher(path).matches();
+
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.type + ":" + this.value;
+    }
+
+    public static enum Type {
+        ANY,
+        LITERAL,
+        PREFIX,
+        REGEX,
+    }
+
+}
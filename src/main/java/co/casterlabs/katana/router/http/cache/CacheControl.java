@@ -0,0 +1,107 @@
+package co.casterlabs.katana.router.http.cache;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.ToString;
+
+/**
+ * The directives of a Cache-Control header that we care about, see RFC 9111
+ * section 5.2 and RFC 5861. Durations are in seconds, -1 means absent.
+ */
+@ToString
+public class CacheControl {
+    public static final CacheControl EMPTY = new CacheControl();
+
+    public boolean noStore = false;
+    public boolean noCache = false;
+    public boolean isPrivate = false;
+    public boolean isPublic = false;
+    public boolean mustRevalidate = false;
+    public long maxAge = -1;
+    public long sMaxAge = -1;
+    public long staleWhileRevalidate = -1;
+    public long staleIfError = -1;
+
+    public static CacheControl parse(@Nullable String header) {
+        if ((header == null) || header.isEmpty()) return EMPTY;
+
+        CacheControl cc = new CacheControl();
+
+        for (String directive : header.split(",")) {
+            directive = directive.trim();
+
+            String name;
+            String value;
+
+            int equalsIdx = directive.indexOf('=');
+            if (equalsIdx == -1) {
+                name = directive.toLowerCase();
+                value = null;
+            } else {
+                name = directive.substring(0, equalsIdx).trim().toLowerCase();
+                value = directive.substring(equalsIdx + 1).trim();
+
+                if ((value.length() >= 2) && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+            }
+
+            switch (name) {
+                case "no-store":
+                    cc.noStore = true;
+                    break;
+
+                case "no-cache":
+                    // `no-cache="field"` only applies to the listed fields, we're
+                    // conservative and treat it as a full no-cache.
+                    cc.noCache = true;
+                    break;
+
+                case "private":
+                    cc.isPrivate = true;
+                    break;
+
+                case "public":
+                    cc.isPublic = true;
+                    break;
+
+                case "must-revalidate":
+                case "proxy-revalidate":
+                    cc.mustRevalidate = true;
+                    break;
+
+                case "max-age":
+                    cc.maxAge = parseSeconds(value);
+                    break;
+
+                case "s-maxage":
+                    cc.sMaxAge = parseSeconds(value);
+                    break;
+
+                case "stale-while-revalidate":
+                    cc.staleWhileRevalidate = parseSeconds(value);
+                    break;
+
+                case "stale-if-error":
+                    cc.staleIfError = parseSeconds(value);
+                    break;
+            }
+        }
+
+        return cc;
+    }
+
+    private static long parseSeconds(@Nullable String value) {
+        if (value == null) return -1;
+
+        try {
+            return Math.max(0, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            if (!value.isEmpty() && value.chars().allMatch(Character::isDigit)) {
+                return Integer.MAX_VALUE; // RFC 9111 1.2.2, overflows become 2^31.
+            }
+            return 0; // RFC 9111 4.2.1, invalid values should be treated as stale.
+        }
+    }
+
+}
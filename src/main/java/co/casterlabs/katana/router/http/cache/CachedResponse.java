@@ -0,0 +1,313 @@
+package co.casterlabs.katana.router.http.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.router.http.HttpUtil;
+import co.casterlabs.katana.router.http.cache.DiskCache.Slot;
+import co.casterlabs.rhs.protocol.http.HttpResponse;
+import co.casterlabs.rhs.protocol.http.HttpResponse.ResponseContent;
+import kotlin.Pair;
+import lombok.Getter;
+import okhttp3.Headers;
+import okhttp3.Request;
+
+/**
+ * An immutable, fully buffered response along with everything needed to work
+ * out its age (RFC 9111 section 4.2).
+ */
+@Getter
+public class CachedResponse {
+    static final byte[] EMPTY_BODY = new byte[0];
+
+    private static final List<String> UNSERVABLE_HEADERS = List.of(
+        "age",
+        "connection",
+        "keep-alive",
+        "transfer-encoding",
+        "content-length",
+        "content-type"
+    );
+
+    private final int code;
+    private final String message;
+    private final Headers headers;
+    private final byte[] body;
+
+    /**
+     * If set, the body lives on disk instead of in {@link #body}.
+     */
+    private final @Nullable Slot slot;
+
+    /**
+     * The vary'd request header values this response is for, used to detect
+     * collisions.
+     */
+    private final List<String> variant;
+
+    private final long requestTime;
+    private final long responseTime;
+    private final long correctedInitialAge;
+
+    private final long freshnessLifetime;
+    private final long staleWhileRevalidate;
+    private final long staleIfError;
+    private final boolean noCache; // Can be stored, but must always be revalidated.
+    private final boolean mustRevalidate;
+
+    private final AtomicBoolean revalidating = new AtomicBoolean(false);
+
+    CachedResponse(int code, String message, Headers headers, byte[] body, @Nullable Slot slot, List<String> variant, long requestTime, long responseTime) {
+        this.code = code;
+        this.message = message;
+        this.headers = headers;
+        this.body = body;
+        this.slot = slot;
+        this.variant = variant;
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+
+        Date date = headers.getDate("Date");
+        long dateValue = (date == null) ? responseTime : date.getTime();
+
+        long ageValue = 0;
+        try {
+            String age = headers.get("Age");
+            if (age != null) {
+                ageValue = TimeUnit.SECONDS.toMillis(Long.parseLong(age.trim()));
+            }
+        } catch (NumberFormatException ignored) {}
+
+        long apparentAge = Math.max(0, responseTime - dateValue);
+        long responseDelay = responseTime - requestTime;
+        this.correctedInitialAge = Math.max(apparentAge, ageValue + responseDelay);
+
+        CacheControl cc = CacheControl.parse(headers.get("Cache-Control"));
+        this.freshnessLifetime = freshnessLifetime(cc, headers, dateValue);
+        this.staleWhileRevalidate = TimeUnit.SECONDS.toMillis(Math.max(0, cc.staleWhileRevalidate));
+        this.staleIfError = TimeUnit.SECONDS.toMillis(Math.max(0, cc.staleIfError));
+        this.noCache = cc.noCache;
+        this.mustRevalidate = cc.mustRevalidate || cc.noCache;
+    }
+
+    /**
+     * @return the freshness lifetime in millis, or -1 if there isn't an explicit
+     *         one. We're a shared cache so s-maxage wins.
+     */
+    static long freshnessLifetime(CacheControl cc, Headers headers, long dateValue) {
+        if (cc.sMaxAge != -1) {
+            return TimeUnit.SECONDS.toMillis(cc.sMaxAge);
+        }
+        if (cc.maxAge != -1) {
+            return TimeUnit.SECONDS.toMillis(cc.maxAge);
+        }
+
+        if (headers.get("Expires") != null) {
+            Date expires = headers.getDate("Expires");
+            if (expires == null) return 0; // Invalid dates mean "already expired".
+            return Math.max(0, expires.getTime() - dateValue);
+        }
+
+        return -1;
+    }
+
+    public long currentAge(long now) {
+        return this.correctedInitialAge + (now - this.responseTime);
+    }
+
+    public boolean isFresh(long now) {
+        return !this.noCache && (this.freshnessLifetime > this.currentAge(now));
+    }
+
+    public boolean canServeWhileRevalidating(long now) {
+        return !this.mustRevalidate && (this.currentAge(now) < this.freshnessLifetime + this.staleWhileRevalidate);
+    }
+
+    public boolean canServeOnError(long now) {
+        return !this.mustRevalidate && (this.currentAge(now) < this.freshnessLifetime + this.staleIfError);
+    }
+
+    public @Nullable String getETag() {
+        return this.headers.get("ETag");
+    }
+
+    public @Nullable String getLastModified() {
+        return this.headers.get("Last-Modified");
+    }
+
+    public boolean hasValidators() {
+        return (this.getETag() != null) || (this.getLastModified() != null);
+    }
+
+    /**
+     * @return a copy of the request with the validators of this response.
+     */
+    public Request toConditionalRequest(Request request) {
+        Request.Builder builder = request.newBuilder();
+
+        if (this.getETag() != null) {
+            builder.header("If-None-Match", this.getETag());
+        }
+        if (this.getLastModified() != null) {
+            builder.header("If-Modified-Since", this.getLastModified());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Freshens this response with the headers of a 304 (RFC 9111 section 4.3.4).
+     */
+    public CachedResponse freshen(Headers notModifiedHeaders, long requestTime, long responseTime) {
+        Headers.Builder merged = this.headers.newBuilder();
+        for (String name : notModifiedHeaders.names()) {
+            if (name.equalsIgnoreCase("Content-Length")) continue;
+            merged.removeAll(name);
+            for (String value : notModifiedHeaders.values(name)) {
+                merged.add(name, value);
+            }
+        }
+
+        return new CachedResponse(this.code, this.message, merged.build(), this.body, this.slot, this.variant, requestTime, responseTime);
+    }
+
+    public long getBodyLength() {
+        return this.slot == null ? this.body.length : this.slot.getBodyLength();
+    }
+
+    public boolean isAlive() {
+        return (this.slot == null) || this.slot.isAlive();
+    }
+
+    /**
+     * Keeps a disk-backed body from being evicted, make sure to
+     * {@link #release()} it (or hand it off to
+     * {@link #toResponse(long, String)}).
+     *
+     * @return false if the body was already evicted.
+     */
+    public boolean retain() {
+        return (this.slot == null) || this.slot.retain();
+    }
+
+    public void release() {
+        if (this.slot != null) {
+            this.slot.release();
+        }
+    }
+
+    /**
+     * Serializes everything but the body, for {@link DiskCache}.
+     */
+    byte[] serializeMeta() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        out.writeInt(this.code);
+        out.writeUTF(this.message);
+        out.writeLong(this.requestTime);
+        out.writeLong(this.responseTime);
+
+        out.writeInt(this.headers.size());
+        for (Pair<? extends String, ? extends String> header : this.headers) {
+            out.writeUTF(header.getFirst());
+            out.writeUTF(header.getSecond());
+        }
+
+        out.writeInt(this.variant.size());
+        for (String value : this.variant) {
+            out.writeUTF(value);
+        }
+
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    static CachedResponse deserialize(Slot slot) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(slot.getMeta()));
+
+        int code = in.readInt();
+        String message = in.readUTF();
+        long requestTime = in.readLong();
+        long responseTime = in.readLong();
+
+        Headers.Builder headers = new Headers.Builder();
+        for (int i = in.readInt(); i > 0; i--) {
+            headers.addUnsafeNonAscii(in.readUTF(), in.readUTF());
+        }
+
+        List<String> variant = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            variant.add(in.readUTF());
+        }
+
+        return new CachedResponse(code, message, headers.build(), EMPTY_BODY, slot, variant, requestTime, responseTime);
+    }
+
+    /**
+     * The approximate amount of memory this response takes up.
+     */
+    public long weight() {
+        // Disk-backed responses only cost us their headers.
+        return this.body.length + this.headers.byteCount() + 128;
+    }
+
+    /**
+     * Takes over the caller's {@link #retain()}, it gets released once the
+     * response is done with.
+     *
+     * @param cacheStatus the value for the Cache-Status header, see RFC 9211.
+     */
+    public HttpResponse toResponse(long now, String cacheStatus) {
+        AtomicBoolean released = new AtomicBoolean(false);
+
+        HttpResponse response = new HttpResponse(
+            new ResponseContent() {
+                @Override
+                public void write(int recommendedBufferSize, OutputStream out) throws IOException {
+                    if (slot == null) {
+                        out.write(body);
+                    } else {
+                        slot.transferTo(out);
+                    }
+                }
+
+                @Override
+                public long length() {
+                    return getBodyLength();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (released.compareAndSet(false, true)) {
+                        release();
+                    }
+                }
+            },
+            HttpUtil.adaptStatus(this.code, this.message)
+        )
+            .mime(this.headers.get("Content-Type"));
+
+        for (Pair<? extends String, ? extends String> header : this.headers) {
+            if (UNSERVABLE_HEADERS.contains(header.getFirst().toLowerCase())) continue;
+            response.header(header.getFirst(), header.getSecond());
+        }
+
+        response.header("Age", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(Math.max(0, this.currentAge(now)))));
+        response.header("Cache-Status", cacheStatus);
+
+        return response;
+    }
+
+}
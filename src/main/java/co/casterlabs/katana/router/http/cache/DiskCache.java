@@ -0,0 +1,507 @@
+package co.casterlabs.katana.router.http.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.BufferPool;
+import lombok.Getter;
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+
+/**
+ * A log-structured cache of blobs on local disk. Entries get appended to
+ * segment files and an in-memory index points into them, once we're over
+ * budget the oldest segment gets dropped as a whole. The index is rebuilt from
+ * the segments on startup so the cache survives restarts.
+ *
+ * Instances are shared per directory (see {@link #open(File, long)}) since a
+ * config reload briefly has both the old and new servlets alive.
+ */
+public class DiskCache implements Closeable {
+    private static final Map<File, DiskCache> INSTANCES = new HashMap<>();
+    private static final FastLogger LOGGER = new FastLogger("DiskCache");
+
+    private static final int MAGIC = 0x4B434131; // KCA1
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 4 + 8; // magic, keyLen, metaLen, bodyLen
+    private static final long TOMBSTONE = -1;
+
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final long MAX_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    private final File directory;
+    private final Map<String, Slot> index = new ConcurrentHashMap<>();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private int references = 0;
+
+    private volatile @Getter long maxSize;
+    private long segmentSize;
+    private Segment active;
+
+    private DiskCache(File directory, long maxSize) throws IOException {
+        this.directory = directory;
+        this.setMaxSize(maxSize);
+
+        directory.mkdirs();
+
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".kc"));
+        Arrays.sort(files, (a, b) -> Integer.compare(segmentId(a), segmentId(b)));
+
+        for (File file : files) {
+            Segment segment = new Segment(segmentId(file), file);
+            this.segments.add(segment);
+            this.scan(segment);
+        }
+
+        this.roll();
+        this.evictIfNeeded();
+
+        LOGGER.debug("Opened %s with %d entries in %d segments.", directory, this.index.size(), this.segments.size());
+    }
+
+    /**
+     * Opens (or reuses) the cache for the given directory. Make sure to
+     * {@link #close()} it when you're done.
+     */
+    public static DiskCache open(@NonNull File directory, long maxSize) throws IOException {
+        directory = directory.getCanonicalFile();
+
+        synchronized (INSTANCES) {
+            DiskCache cache = INSTANCES.get(directory);
+            if (cache == null) {
+                cache = new DiskCache(directory, maxSize);
+                INSTANCES.put(directory, cache);
+            } else {
+                cache.setMaxSize(maxSize);
+            }
+
+            cache.references++;
+            return cache;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (INSTANCES) {
+            if (--this.references > 0) return;
+            INSTANCES.remove(this.directory);
+        }
+
+        synchronized (this) {
+            // Outstanding slots stop being alive right away, the files only get closed
+            // once whoever's still reading from them is done (and stay on disk).
+            for (Segment segment : this.segments) {
+                segment.retire(false);
+            }
+            this.segments.clear();
+            this.index.clear();
+        }
+    }
+
+    private synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        this.segmentSize = Math.max(MIN_SEGMENT_SIZE, Math.min(maxSize / 8, MAX_SEGMENT_SIZE));
+    }
+
+    public @Nullable Slot get(@NonNull String key) {
+        Slot slot = this.index.get(key);
+        if ((slot == null) || slot.segment.isRetired()) return null;
+        return slot;
+    }
+
+    public void remove(@NonNull String key) {
+        if (this.index.remove(key) == null) return;
+
+        try {
+            this.reserve(key, new byte[0], TOMBSTONE).commit();
+        } catch (IOException e) {
+            LOGGER.debug("Couldn't write tombstone for %s:\n%s", key, e);
+        }
+    }
+
+    /**
+     * Streams exactly bodyLength bytes from body into the cache.
+     *
+     * @return the new slot, or null if the body was too large.
+     */
+    public @Nullable Slot put(@NonNull String key, @NonNull byte[] meta, long bodyLength, @NonNull InputStream body) throws IOException {
+        Writer writer = this.begin(key, meta, bodyLength);
+        if (writer == null) return null;
+
+        byte[] buffer = BufferPool.acquire(bodyLength);
+        try {
+            long written = 0;
+            while (written < bodyLength) {
+                int read = body.read(buffer, 0, (int) Math.min(buffer.length, bodyLength - written));
+                if (read == -1) throw new IOException("Body ended early, expected " + bodyLength + " bytes but got " + written);
+
+                writer.write(buffer, 0, read);
+                written += read;
+            }
+
+            return writer.commit();
+        } finally {
+            BufferPool.release(buffer);
+            writer.abort();
+        }
+    }
+
+    /**
+     * Reserves room for an entry whose body will be written piece by piece, e.g
+     * while it's also being streamed to a client. Nothing is visible (even after
+     * a restart) until {@link Writer#commit()}.
+     *
+     * @return the writer, or null if the body was too large.
+     */
+    public @Nullable Writer begin(@NonNull String key, @NonNull byte[] meta, long bodyLength) throws IOException {
+        if (bodyLength > this.segmentSize) return null;
+        return this.reserve(key, meta, bodyLength);
+    }
+
+    public int count() {
+        return this.index.size();
+    }
+
+    public synchronized long size() {
+        long size = 0;
+        for (Segment segment : this.segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    private Writer reserve(String key, byte[] meta, long bodyLength) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long recordLength = RECORD_HEADER_SIZE + keyBytes.length + meta.length + Math.max(0, bodyLength);
+
+        Segment segment;
+        long position;
+        synchronized (this) {
+            if (this.active.isRetired()) {
+                throw new IOException("The cache has been closed.");
+            }
+
+            if (this.active.size + recordLength > this.segmentSize) {
+                this.roll();
+            }
+
+            // Reserve our spot, that way the (slow) body write can happen without
+            // holding the lock.
+            segment = this.active;
+            position = segment.size;
+            segment.size += recordLength;
+            segment.retain(); // Can't be retired yet, we hold the lock.
+        }
+
+        try {
+            // Write everything but the magic, that gets written last to commit the record.
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + keyBytes.length + meta.length);
+            header.putInt(0);
+            header.putInt(keyBytes.length);
+            header.putInt(meta.length);
+            header.putLong(bodyLength);
+            header.put(keyBytes);
+            header.put(meta);
+            header.flip();
+            writeFully(segment.channel, header, position);
+
+            return new Writer(key, meta, segment, position, position + header.capacity(), bodyLength);
+        } catch (IOException e) {
+            segment.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Rebuilds the index from a segment. Mapping it in lets us hop from header to
+     * header without reading the bodies.
+     */
+    private void scan(Segment segment) throws IOException {
+        long fileSize = segment.channel.size();
+        if (fileSize == 0) return;
+
+        MappedByteBuffer map = segment.channel.map(MapMode.READ_ONLY, 0, fileSize);
+        int position = 0;
+
+        while (position + RECORD_HEADER_SIZE <= fileSize) {
+            map.position(position);
+            int magic = map.getInt();
+            int keyLength = map.getInt();
+            int metaLength = map.getInt();
+            long bodyLength = map.getLong();
+
+            long recordLength = RECORD_HEADER_SIZE + (long) keyLength + metaLength + Math.max(0, bodyLength);
+            if ((keyLength <= 0) || (metaLength < 0) || (position + recordLength > fileSize)) {
+                break; // End of the log (or a torn write).
+            }
+
+            if (magic == MAGIC) {
+                byte[] keyBytes = new byte[keyLength];
+                byte[] meta = new byte[metaLength];
+                map.get(keyBytes);
+                map.get(meta);
+
+                String key = new String(keyBytes, StandardCharsets.UTF_8);
+                if (bodyLength == TOMBSTONE) {
+                    this.index.remove(key);
+                } else {
+                    long bodyOffset = position + RECORD_HEADER_SIZE + keyLength + metaLength;
+                    this.index.put(key, new Slot(key, meta, segment, bodyOffset, bodyLength));
+                }
+            } // Otherwise it was never committed, skip it.
+
+            position += recordLength;
+        }
+
+        segment.size = position;
+    }
+
+    private synchronized void roll() throws IOException {
+        if ((this.active != null) && (this.active.size == 0)) return;
+
+        int id = this.segments.isEmpty() ? 0 : this.segments.peekLast().id + 1;
+        this.active = new Segment(id, new File(this.directory, String.format("segment-%d.kc", id)));
+        this.segments.add(this.active);
+    }
+
+    private synchronized void evictIfNeeded() {
+        long size = this.size();
+
+        while ((size > this.maxSize) && (this.segments.size() > 1)) {
+            Segment oldest = this.segments.pollFirst();
+            size -= oldest.size;
+
+            this.index.values().removeIf((slot) -> slot.segment == oldest);
+            oldest.retire(true);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static int segmentId(File file) {
+        String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring("segment-".length(), name.length() - ".kc".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * An entry that's still being written. Make sure to either commit or abort
+     * it, an aborted record just takes up space until its segment gets dropped.
+     */
+    public class Writer {
+        private final String key;
+        private final byte[] meta;
+        private final Segment segment;
+        private final long position;
+        private final long bodyOffset;
+        private final long bodyLength;
+
+        private long written = 0;
+        private boolean done = false;
+
+        private Writer(String key, byte[] meta, Segment segment, long position, long bodyOffset, long bodyLength) {
+            this.key = key;
+            this.meta = meta;
+            this.segment = segment;
+            this.position = position;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+        }
+
+        public void write(@NonNull byte[] bytes, int offset, int length) throws IOException {
+            if (this.written + length > this.bodyLength) {
+                throw new IOException("Body is longer than the expected " + this.bodyLength + " bytes.");
+            }
+
+            writeFully(this.segment.channel, ByteBuffer.wrap(bytes, offset, length), this.bodyOffset + this.written);
+            this.written += length;
+        }
+
+        /**
+         * @return the new slot, or null if this was a tombstone.
+         */
+        public @Nullable Slot commit() throws IOException {
+            if (this.done) throw new IllegalStateException("Already committed or aborted.");
+            if (this.written != Math.max(0, this.bodyLength)) {
+                throw new IOException("Body ended early, expected " + this.bodyLength + " bytes but got " + this.written);
+            }
+
+            try {
+                // The record has to actually be on disk before the magic is, otherwise a
+                // power loss could leave us with a committed record that has no body.
+                this.segment.channel.force(false);
+
+                ByteBuffer magic = ByteBuffer.allocate(4).putInt(MAGIC);
+                magic.flip();
+                writeFully(this.segment.channel, magic, this.position);
+            } finally {
+                this.done = true;
+                this.segment.release();
+            }
+
+            if (this.bodyLength == TOMBSTONE) return null;
+            if (this.segment.isRetired()) return null; // Got evicted whilst we were writing.
+
+            Slot slot = new Slot(this.key, this.meta, this.segment, this.bodyOffset, this.bodyLength);
+            index.put(this.key, slot);
+            evictIfNeeded();
+            return slot;
+        }
+
+        /**
+         * Does nothing if the writer was already committed.
+         */
+        public void abort() {
+            if (this.done) return;
+            this.done = true;
+            this.segment.release();
+        }
+
+    }
+
+    @Getter
+    public static class Slot {
+        private final String key;
+        private final byte[] meta;
+        private final long bodyLength;
+
+        private final Segment segment;
+        private final long bodyOffset;
+
+        private Slot(String key, byte[] meta, Segment segment, long bodyOffset, long bodyLength) {
+            this.key = key;
+            this.meta = meta;
+            this.segment = segment;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+        }
+
+        public boolean isAlive() {
+            return !this.segment.isRetired();
+        }
+
+        /**
+         * Keeps the segment (and thus the body) around even if it gets evicted,
+         * make sure to {@link #release()} it.
+         *
+         * @return false if it was already evicted.
+         */
+        public boolean retain() {
+            return this.segment.retain();
+        }
+
+        public void release() {
+            this.segment.release();
+        }
+
+        /**
+         * Copies the body out of the file through pooled buffers. We only get an
+         * OutputStream, so going through Channels.newChannel() would cost us a fresh
+         * heap buffer (and a temporary direct one) per transfer.
+         *
+         * The caller must be holding a {@link #retain()}.
+         */
+        public void transferTo(@NonNull OutputStream out) throws IOException {
+            ByteBuffer direct = BufferPool.acquireDirect();
+            byte[] heap = BufferPool.acquire(this.bodyLength);
+            try {
+                int chunk = Math.min(direct.capacity(), heap.length);
+                long transferred = 0;
+                while (transferred < this.bodyLength) {
+                    direct.clear().limit((int) Math.min(chunk, this.bodyLength - transferred));
+
+                    int read = this.segment.channel.read(direct, this.bodyOffset + transferred);
+                    if (read <= 0) throw new IOException("Segment was truncated.");
+
+                    direct.flip();
+                    direct.get(heap, 0, read);
+                    out.write(heap, 0, read);
+                    transferred += read;
+                }
+            } finally {
+                BufferPool.release(heap);
+                BufferPool.releaseDirect(direct);
+            }
+        }
+
+    }
+
+    private static class Segment {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private volatile long size = 0;
+
+        // The cache itself holds one reference, readers take one each.
+        private final AtomicInteger references = new AtomicInteger(1);
+        private volatile boolean retired = false;
+        private volatile boolean deleteOnRelease = false;
+
+        private Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        private boolean isRetired() {
+            return this.retired;
+        }
+
+        private boolean retain() {
+            while (true) {
+                int refs = this.references.get();
+                if ((refs == 0) || this.retired) return false;
+                if (this.references.compareAndSet(refs, refs + 1)) return true;
+            }
+        }
+
+        private void release() {
+            if (this.references.decrementAndGet() == 0) {
+                try {
+                    this.channel.close();
+                } catch (IOException ignored) {}
+                if (this.deleteOnRelease) {
+                    this.file.delete();
+                }
+            }
+        }
+
+        /**
+         * Drops the cache's reference, nothing new can retain it after this.
+         *
+         * @param delete whether to delete the file once the last reader is done, as
+         *               opposed to keeping it around for the next time we start.
+         */
+        private void retire(boolean delete) {
+            this.deleteOnRelease = delete;
+            this.retired = true;
+            this.release();
+        }
+
+    }
+
+}
@@ -0,0 +1,393 @@
+package co.casterlabs.katana.router.http.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.LruCache;
+import co.casterlabs.katana.router.http.cache.DiskCache.Slot;
+import lombok.Getter;
+import lombok.NonNull;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * A size-bounded, RFC 9111-aware shared cache. Responses are keyed by the
+ * client-facing url and, if the origin says so, the Vary'd request headers.
+ *
+ * Deciding what to do with an entry (serving, revalidating, etc) is left up to
+ * the caller, this only handles storage and bookkeeping.
+ */
+@Getter
+public class HttpCache {
+    private static final int VARY_INDEX_SIZE = 4096;
+    private static final String VARY_PREFIX = "vary\n";
+
+    // RFC 9110 section 15.1, the status codes that are heuristically cacheable. We
+    // only ever store responses with an explicit lifetime though.
+    private static final Set<Integer> CACHEABLE_STATUSES = Set.of(200, 203, 204, 300, 301, 308, 404, 405, 410, 414, 501);
+
+    private final LruCache<String, CachedResponse> entries;
+    private final LruCache<String, List<String>> varyIndex = new LruCache<>(VARY_INDEX_SIZE);
+    private final long maxEntrySize;
+
+    // The optional second tier, for responses that are too big to keep on heap.
+    private volatile @Nullable DiskCache disk;
+    private volatile long maxDiskEntrySize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong diskStores = new AtomicLong();
+
+    public HttpCache(long maxSize, long maxEntrySize) {
+        this.entries = new LruCache<>(maxSize, CachedResponse::weight);
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    public void attachDisk(@NonNull DiskCache disk, long maxEntrySize) {
+        this.maxDiskEntrySize = maxEntrySize;
+        this.disk = disk;
+    }
+
+    /**
+     * @return the previously attached disk cache, if any. It's up to the caller to
+     *         close it.
+     */
+    public @Nullable DiskCache detachDisk() {
+        DiskCache disk = this.disk;
+        this.disk = null;
+        return disk;
+    }
+
+    public static boolean isCacheable(@NonNull Request request) {
+        if (!request.method().equals("GET") && !request.method().equals("HEAD")) {
+            return false;
+        }
+
+        return !CacheControl.parse(request.header("Cache-Control")).noStore;
+    }
+
+    /**
+     * @return the response, if any. Disk-backed responses come with their body
+     *         retained so that it can't be evicted out from under us, make sure to
+     *         either {@link CachedResponse#toResponse(long, String)} or
+     *         {@link CachedResponse#release()} it.
+     */
+    public @Nullable CachedResponse get(@NonNull String key, @NonNull Request request) {
+        DiskCache disk = this.disk;
+
+        List<String> varyNames = this.varyIndex.get(key);
+        if ((varyNames == null) && (disk != null)) {
+            varyNames = this.loadVaryNames(disk, key);
+        }
+        if (varyNames == null) {
+            varyNames = Collections.emptyList();
+        }
+
+        List<String> variant = variantOf(varyNames, request);
+        String variantKey = variantKey(key, variant);
+
+        CachedResponse cached = this.entries.get(variantKey);
+        if ((cached != null) && !cached.isAlive()) {
+            // Got evicted from disk.
+            this.entries.remove(variantKey);
+            cached = null;
+        }
+
+        if ((cached == null) && (disk != null)) {
+            Slot slot = disk.get(variantKey);
+            if (slot != null) {
+                try {
+                    cached = CachedResponse.deserialize(slot);
+                    this.entries.put(variantKey, cached); // Promote the metadata.
+                    this.diskHits.incrementAndGet();
+                } catch (IOException e) {
+                    disk.remove(variantKey);
+                }
+            }
+        }
+
+        if ((cached == null) || !cached.getVariant().equals(variant)) {
+            return null;
+        }
+
+        if (!cached.retain()) {
+            // Got evicted from disk in the meantime.
+            this.entries.remove(variantKey);
+            return null;
+        }
+        return cached;
+    }
+
+    private @Nullable List<String> loadVaryNames(DiskCache disk, String key) {
+        Slot slot = disk.get(VARY_PREFIX + key);
+        if (slot == null) return null;
+
+        String names = new String(slot.getMeta(), StandardCharsets.UTF_8);
+        List<String> varyNames = names.isEmpty() ? Collections.emptyList() : Arrays.asList(names.split("\n"));
+        this.varyIndex.put(key, varyNames);
+        return varyNames;
+    }
+
+    /**
+     * Stores the response if it's allowed to be and fits on heap. The body is only
+     * consumed if it fits, otherwise whatever was buffered is left in the response
+     * for the caller to stream out (see
+     * {@link #teeToDisk(String, Request, Response, long, long, Runnable)}).
+     *
+     * @return the stored response, or null if it couldn't be stored.
+     */
+    public @Nullable CachedResponse store(@NonNull String key, @NonNull Request request, @NonNull Response response, long requestTime, long responseTime) throws IOException {
+        List<String> varyNames = storableVaryNames(request, response, responseTime);
+        if (varyNames == null) return null;
+
+        ResponseBody body = response.body();
+        if (body == null) return null;
+
+        List<String> variant = variantOf(varyNames, request);
+
+        // Peek the body in, stopping if it gets too big.
+        BufferedSource source = body.source();
+        if (source.request(this.maxEntrySize + 1)) {
+            return null;
+        }
+        byte[] bytes = source.readByteArray();
+
+        CachedResponse cached = new CachedResponse(response.code(), response.message(), response.headers(), bytes, null, variant, requestTime, responseTime);
+
+        this.put(key, varyNames, cached);
+        this.stores.incrementAndGet();
+        return cached;
+    }
+
+    /**
+     * For responses that are too big for the heap. The body gets written to the
+     * disk cache as the caller streams it out through the returned source, and the
+     * entry is only committed once all of it made it through. Closing the source
+     * early throws away what was written.
+     *
+     * @param  onDone gets run once the entry has been committed or thrown away,
+     *                but only if a source was returned.
+     *
+     * @return        the source to stream the body from, or null if it can't be
+     *                stored (in which case just use the response's).
+     */
+    public @Nullable BufferedSource teeToDisk(@NonNull String key, @NonNull Request request, @NonNull Response response, long requestTime, long responseTime, @Nullable Runnable onDone) throws IOException {
+        DiskCache disk = this.disk;
+        if (disk == null) return null;
+
+        List<String> varyNames = storableVaryNames(request, response, responseTime);
+        if (varyNames == null) return null;
+
+        ResponseBody body = response.body();
+        if (body == null) return null;
+
+        // We need to know the length up front, and it has to be worth it.
+        long length = body.contentLength();
+        if ((length == -1) || (length <= this.maxEntrySize) || (length > this.maxDiskEntrySize)) return null;
+
+        List<String> variant = variantOf(varyNames, request);
+        CachedResponse metadata = new CachedResponse(response.code(), response.message(), response.headers(), CachedResponse.EMPTY_BODY, null, variant, requestTime, responseTime);
+
+        DiskCache.Writer writer = disk.begin(variantKey(key, variant), metadata.serializeMeta(), length);
+        if (writer == null) return null;
+
+        return Okio.buffer(new ForwardingSource(body.source()) {
+            private final Buffer copy = new Buffer();
+            private final byte[] chunk = new byte[8192];
+            private boolean done = false;
+            private boolean finished = false;
+
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read = super.read(sink, byteCount);
+                if (this.done) return read;
+
+                // The cache is best-effort, the client still gets their response.
+                try {
+                    if (read == -1) {
+                        this.done = true;
+                        commitToDisk(disk, writer, key, varyNames, response, variant, requestTime, responseTime);
+                        this.finish();
+                    } else {
+                        sink.copyTo(this.copy, sink.size() - read, read);
+                        while (!this.copy.exhausted()) {
+                            int copied = this.copy.read(this.chunk, 0, this.chunk.length);
+                            writer.write(this.chunk, 0, copied);
+                        }
+                    }
+                } catch (IOException e) {
+                    this.done = true;
+                    this.copy.clear();
+                    writer.abort();
+                    this.finish();
+                }
+
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    writer.abort(); // Does nothing if we already committed.
+                    this.finish();
+                } finally {
+                    super.close();
+                }
+            }
+
+            private void finish() {
+                if (this.finished) return;
+                this.finished = true;
+                if (onDone != null) onDone.run();
+            }
+        });
+    }
+
+    private void commitToDisk(DiskCache disk, DiskCache.Writer writer, String key, List<String> varyNames, Response response, List<String> variant, long requestTime, long responseTime) throws IOException {
+        Slot slot = writer.commit();
+        if (slot == null) return;
+
+        disk.put(VARY_PREFIX + key, String.join("\n", varyNames).getBytes(StandardCharsets.UTF_8), 0, InputStream.nullInputStream());
+
+        CachedResponse cached = new CachedResponse(response.code(), response.message(), response.headers(), CachedResponse.EMPTY_BODY, slot, variant, requestTime, responseTime);
+
+        this.put(key, varyNames, cached);
+        this.diskStores.incrementAndGet();
+    }
+
+    /**
+     * @return the lowercased Vary'd header names, or null if the response can't be
+     *         stored.
+     */
+    private static @Nullable List<String> storableVaryNames(Request request, Response response, long responseTime) {
+        if (!request.method().equals("GET")) return null;
+        if (!CACHEABLE_STATUSES.contains(response.code())) return null;
+
+        CacheControl requestCc = CacheControl.parse(request.header("Cache-Control"));
+        CacheControl responseCc = CacheControl.parse(response.header("Cache-Control"));
+        if (requestCc.noStore || responseCc.noStore || responseCc.isPrivate) return null;
+
+        // RFC 9111 section 3.5
+        if ((request.header("Authorization") != null) && !responseCc.isPublic && !responseCc.mustRevalidate && (responseCc.sMaxAge == -1)) {
+            return null;
+        }
+
+        // We never want to hand one user's cookies out to another.
+        if (response.header("Set-Cookie") != null) return null;
+
+        if (CachedResponse.freshnessLifetime(responseCc, response.headers(), responseTime) == -1) {
+            return null; // No explicit lifetime, we don't do heuristic caching.
+        }
+
+        List<String> varyNames = parseVary(response.headers("Vary"));
+        if (varyNames == null) return null; // `Vary: *`
+
+        // A compressed body that doesn't vary on Accept-Encoding could end up with a
+        // client that can't decode it.
+        if ((response.header("Content-Encoding") != null) && !varyNames.contains("accept-encoding")) {
+            return null;
+        }
+
+        return varyNames;
+    }
+
+    /**
+     * Swaps in a freshened response, see
+     * {@link CachedResponse#freshen(okhttp3.Headers, long, long)}. Like
+     * {@link #get(String, Request)}, the result comes retained.
+     *
+     * @return the freshened response, or null if its body got evicted from disk.
+     */
+    public @Nullable CachedResponse freshen(@NonNull String key, @NonNull CachedResponse cached, @NonNull Response notModified, long requestTime, long responseTime) {
+        CachedResponse freshened = cached.freshen(notModified.headers(), requestTime, responseTime);
+        if (!freshened.retain()) return null;
+
+        List<String> varyNames = this.varyIndex.get(key);
+        this.put(key, varyNames == null ? Collections.emptyList() : varyNames, freshened);
+
+        this.revalidations.incrementAndGet();
+        return freshened;
+    }
+
+    public void invalidate(@NonNull String key, @NonNull CachedResponse cached) {
+        String variantKey = variantKey(key, cached.getVariant());
+        this.entries.remove(variantKey);
+
+        DiskCache disk = this.disk;
+        if ((disk != null) && (cached.getSlot() != null)) {
+            disk.remove(variantKey);
+        }
+    }
+
+    private void put(String key, List<String> varyNames, CachedResponse cached) {
+        if (varyNames.isEmpty()) {
+            this.varyIndex.remove(key);
+        } else {
+            this.varyIndex.put(key, varyNames);
+        }
+        this.entries.put(variantKey(key, cached.getVariant()), cached);
+    }
+
+    public long size() {
+        return this.entries.weight();
+    }
+
+    public int count() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return the lowercased header names, or null if the response varies on
+     *         everything (`*`).
+     */
+    private static @Nullable List<String> parseVary(List<String> headers) {
+        List<String> names = new ArrayList<>();
+        for (String header : headers) {
+            for (String name : header.split(",")) {
+                name = name.trim().toLowerCase();
+                if (name.isEmpty()) continue;
+                if (name.equals("*")) return null;
+                if (!names.contains(name)) names.add(name);
+            }
+        }
+        names.sort(null);
+        return names;
+    }
+
+    private static List<String> variantOf(List<String> varyNames, Request request) {
+        if (varyNames.isEmpty()) return Collections.emptyList();
+
+        List<String> values = new ArrayList<>(varyNames.size());
+        for (String name : varyNames) {
+            values.add(String.join(", ", request.headers(name)));
+        }
+        return values;
+    }
+
+    private static String variantKey(String key, List<String> variant) {
+        if (variant.isEmpty()) return key;
+
+        // Collisions are caught by comparing the variant in get(), so this doesn't
+        // need to be perfect.
+        return key + '\n' + variant.hashCode();
+    }
+
+}
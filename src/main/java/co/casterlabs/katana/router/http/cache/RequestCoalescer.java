@@ -0,0 +1,78 @@
+package co.casterlabs.katana.router.http.cache;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Single-flight for cache misses. The first request for a key becomes the
+ * leader and goes upstream, everyone else waits for it to finish and then
+ * checks the cache again.
+ */
+@Getter
+public class RequestCoalescer {
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * @return a flight if you're the leader, make sure to close it once the
+     *         response has been stored (or not). Null if someone else is already
+     *         fetching it, in which case you should {@link #await(String, long)}.
+     */
+    public @Nullable Flight lead(@NonNull String key) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (this.inFlight.putIfAbsent(key, future) != null) {
+            return null;
+        }
+        return new Flight(key, future);
+    }
+
+    /**
+     * @return true if the leader finished in time, false if we timed out (or there
+     *         wasn't a leader to begin with).
+     */
+    public boolean await(@NonNull String key, long timeoutMillis) throws InterruptedException {
+        CompletableFuture<Void> future = this.inFlight.get(key);
+        if (future == null) return true; // Already done.
+
+        try {
+            future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            this.coalesced.incrementAndGet();
+            return true;
+        } catch (TimeoutException e) {
+            this.timeouts.incrementAndGet();
+            return false;
+        } catch (ExecutionException e) {
+            return false; // Shouldn't happen, flights always complete normally.
+        }
+    }
+
+    public class Flight implements AutoCloseable {
+        private final String key;
+        private final CompletableFuture<Void> future;
+
+        private Flight(String key, CompletableFuture<Void> future) {
+            this.key = key;
+            this.future = future;
+        }
+
+        @Override
+        public void close() {
+            inFlight.remove(this.key, this.future);
+            this.future.complete(null);
+        }
+
+    }
+
+}
@@ -0,0 +1,134 @@
+package co.casterlabs.katana.router.http.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import co.casterlabs.katana.BufferPool;
+import co.casterlabs.katana.router.http.compression.ResponseCompressor.Encoding;
+
+/**
+ * Like GZIPOutputStream/DeflaterOutputStream, except that the Deflater and
+ * buffer are pooled. Closing this finishes the stream but leaves the underlying
+ * one open.
+ */
+class CompressingOutputStream extends OutputStream {
+    private static final byte[] GZIP_HEADER = {
+            0x1f, (byte) 0x8b, // Magic
+            Deflater.DEFLATED,
+            0, // Flags
+            0, 0, 0, 0, // Modification time
+            0, // Extra flags
+            (byte) 0xff // OS (unknown)
+    };
+
+    private final OutputStream out;
+    private final Encoding encoding;
+    private final int level;
+    private final Deflater deflater;
+    private final byte[] buffer;
+    private final CRC32 crc;
+
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+    private long nanos = 0;
+    private boolean closed = false;
+
+    CompressingOutputStream(OutputStream out, Encoding encoding, int level) throws IOException {
+        this.out = out;
+        this.encoding = encoding;
+        this.level = level;
+        this.deflater = ResponseCompressor.acquireDeflater(encoding, level);
+        this.buffer = BufferPool.acquire(-1);
+
+        if (encoding == Encoding.GZIP) {
+            this.crc = new CRC32();
+            this.out.write(GZIP_HEADER);
+            this.bytesOut += GZIP_HEADER.length;
+        } else {
+            this.crc = null;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[] {
+                (byte) b
+        }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.closed) throw new IOException("Stream closed.");
+        if (len == 0) return;
+
+        if (this.crc != null) {
+            this.crc.update(b, off, len);
+        }
+        this.bytesIn += len;
+
+        this.deflater.setInput(b, off, len);
+        while (!this.deflater.needsInput()) {
+            this.deflate(Deflater.NO_FLUSH);
+        }
+    }
+
+    /**
+     * Sync flushes everything written so far, for streaming responses.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.closed) return;
+
+        while (this.deflate(Deflater.SYNC_FLUSH) == this.buffer.length) {}
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) return;
+        this.closed = true;
+
+        try {
+            this.deflater.finish();
+            while (!this.deflater.finished()) {
+                this.deflate(Deflater.NO_FLUSH);
+            }
+
+            if (this.crc != null) {
+                byte[] trailer = new byte[8];
+                writeIntLE(trailer, 0, (int) this.crc.getValue());
+                writeIntLE(trailer, 4, (int) this.bytesIn); // Modulo 2^32.
+                this.out.write(trailer);
+                this.bytesOut += trailer.length;
+            }
+
+            this.out.flush();
+        } finally {
+            ResponseCompressor.releaseDeflater(this.encoding, this.level, this.deflater);
+            BufferPool.release(this.buffer);
+            ResponseCompressor.record(this.bytesIn, this.bytesOut, this.nanos);
+        }
+    }
+
+    private int deflate(int flush) throws IOException {
+        long start = System.nanoTime();
+        int count = this.deflater.deflate(this.buffer, 0, this.buffer.length, flush);
+        this.nanos += System.nanoTime() - start;
+
+        if (count > 0) {
+            this.out.write(this.buffer, 0, count);
+            this.bytesOut += count;
+        }
+        return count;
+    }
+
+    private static void writeIntLE(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >> 8);
+        b[off + 2] = (byte) (value >> 16);
+        b[off + 3] = (byte) (value >> 24);
+    }
+
+}
@@ -0,0 +1,194 @@
+package co.casterlabs.katana.router.http.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.router.http.HttpRouterConfiguration.HttpCompressionConfiguration;
+import co.casterlabs.katana.router.http.HttpUtil;
+import co.casterlabs.katana.router.http.files.StaticFile;
+import co.casterlabs.rhs.HttpStatus;
+import co.casterlabs.rhs.protocol.HeaderValue;
+import co.casterlabs.rhs.protocol.http.HttpResponse;
+import co.casterlabs.rhs.protocol.http.HttpResponse.ResponseContent;
+import co.casterlabs.rhs.protocol.http.HttpSession;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Compresses response bodies on the fly. Servlets opt in where they build their
+ * responses, the settings come from
+ * {@link co.casterlabs.katana.router.http.servlets.HttpServlet#getEffectiveCompression(co.casterlabs.katana.router.http.HttpRouter)}.
+ */
+public class ResponseCompressor {
+    private static final int MAX_POOLED_DEFLATERS = 64;
+
+    // Indexed by [encoding][level].
+    @SuppressWarnings("unchecked")
+    private static final Queue<Deflater>[][] DEFLATER_POOLS = new Queue[Encoding.values().length][10];
+    private static final AtomicInteger[][] DEFLATER_POOL_SIZES = new AtomicInteger[Encoding.values().length][10];
+
+    private static final @Getter AtomicLong responses = new AtomicLong();
+    private static final @Getter AtomicLong bytesIn = new AtomicLong();
+    private static final @Getter AtomicLong bytesOut = new AtomicLong();
+    private static final @Getter AtomicLong nanos = new AtomicLong();
+
+    static {
+        for (int e = 0; e < DEFLATER_POOLS.length; e++) {
+            for (int l = 0; l < DEFLATER_POOLS[e].length; l++) {
+                DEFLATER_POOLS[e][l] = new ConcurrentLinkedQueue<>();
+                DEFLATER_POOL_SIZES[e][l] = new AtomicInteger();
+            }
+        }
+    }
+
+    /**
+     * @return whether or not the body is worth compressing, regardless of what the
+     *         client accepts.
+     */
+    public static boolean isCompressible(@NonNull HttpCompressionConfiguration config, @Nullable String mime, long length) {
+        if ((length != -1) && (length < config.minSize)) return false;
+        return config.isCompressible(mime);
+    }
+
+    /**
+     * @return the encoding the client prefers, or null if it doesn't accept any
+     *         of ours.
+     */
+    public static @Nullable Encoding negotiate(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null) return null;
+
+        Encoding best = null;
+        double bestQuality = 0;
+        for (Encoding encoding : Encoding.values()) {
+            double quality = HttpUtil.encodingQuality(acceptEncoding, encoding.getToken());
+            if (quality > bestQuality) {
+                best = encoding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the content, compressed on the fly. The length becomes unknown.
+     */
+    public static ResponseContent compress(@NonNull ResponseContent content, @NonNull Encoding encoding, int level) {
+        return new ResponseContent() {
+            @Override
+            public void write(int recommendedBufferSize, OutputStream out) throws IOException {
+                responses.incrementAndGet();
+                try (CompressingOutputStream compressed = new CompressingOutputStream(out, encoding, level)) {
+                    content.write(recommendedBufferSize, compressed);
+                }
+            }
+
+            @Override
+            public long length() {
+                return -1;
+            }
+
+            @Override
+            public void close() throws IOException {
+                content.close();
+            }
+        };
+    }
+
+    /**
+     * Builds a response, compressing it if the config and the client allow.
+     */
+    public static HttpResponse respond(@NonNull HttpSession session, @NonNull HttpCompressionConfiguration config, @NonNull ResponseContent content, @NonNull HttpStatus status, @Nullable String mime) {
+        if (!config.enabled || !isCompressible(config, mime, content.length())) {
+            return new HttpResponse(content, status).mime(mime);
+        }
+
+        HeaderValue acceptEncoding = session.headers().getSingle("Accept-Encoding");
+        Encoding encoding = negotiate(acceptEncoding == null ? null : acceptEncoding.raw());
+        if (encoding == null) {
+            return new HttpResponse(content, status)
+                .mime(mime)
+                .header("Vary", "Accept-Encoding");
+        }
+
+        return new HttpResponse(compress(content, encoding, config.level), status)
+            .mime(mime)
+            .header("Content-Encoding", encoding.getToken())
+            .header("Vary", "Accept-Encoding");
+    }
+
+    /**
+     * Serves a file, compressing it if possible. Range requests (and files we
+     * can't compress) are served as-is.
+     *
+     * @param etag the ETag of the identity file, if any.
+     */
+    public static HttpResponse respondWithFile(@NonNull HttpSession session, @NonNull HttpCompressionConfiguration config, @NonNull HttpStatus status, @NonNull StaticFile file, @Nullable String etag) throws IOException {
+        if (!config.enabled || !isCompressible(config, file.getMime(), file.getLength())) {
+            return StaticCompression.tag(file.toResponse(session, status), etag, null);
+        }
+
+        HeaderValue acceptEncoding = session.headers().getSingle("Accept-Encoding");
+        Encoding encoding = negotiate(acceptEncoding == null ? null : acceptEncoding.raw());
+
+        if ((encoding == null) || (session.headers().getSingle("Range") != null)) {
+            // Ranges are of the identity body.
+            HttpResponse response = file.toResponse(session, status)
+                .header("Vary", "Accept-Encoding");
+            return StaticCompression.tag(response, etag, null);
+        }
+
+        HttpResponse response = new HttpResponse(compress(file.content(), encoding, config.level), status)
+            .mime(file.getMime())
+            .header("Content-Encoding", encoding.getToken())
+            .header("Vary", "Accept-Encoding");
+        return StaticCompression.tag(response, etag, encoding.getToken());
+    }
+
+    static Deflater acquireDeflater(Encoding encoding, int level) {
+        Deflater deflater = DEFLATER_POOLS[encoding.ordinal()][level].poll();
+        if (deflater == null) {
+            // Raw deflate for gzip since we write the header/trailer ourselves.
+            return new Deflater(level, encoding == Encoding.GZIP);
+        }
+
+        DEFLATER_POOL_SIZES[encoding.ordinal()][level].decrementAndGet();
+        return deflater;
+    }
+
+    static void releaseDeflater(Encoding encoding, int level, Deflater deflater) {
+        if (DEFLATER_POOL_SIZES[encoding.ordinal()][level].incrementAndGet() <= MAX_POOLED_DEFLATERS) {
+            deflater.reset();
+            DEFLATER_POOLS[encoding.ordinal()][level].offer(deflater);
+        } else {
+            DEFLATER_POOL_SIZES[encoding.ordinal()][level].decrementAndGet();
+            deflater.end(); // Frees the native memory now rather than whenever the GC gets to it.
+        }
+    }
+
+    static void record(long in, long out, long elapsed) {
+        bytesIn.addAndGet(in);
+        bytesOut.addAndGet(out);
+        nanos.addAndGet(elapsed);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static enum Encoding {
+        // In order of preference, for ties.
+        GZIP("gzip"),
+        DEFLATE("deflate"),
+        ;
+
+        private final String token;
+
+    }
+
+}
@@ -0,0 +1,191 @@
+package co.casterlabs.katana.router.http.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.LruCache;
+import co.casterlabs.katana.router.http.HttpRouterConfiguration.HttpCompressionConfiguration;
+import co.casterlabs.katana.router.http.HttpUtil;
+import co.casterlabs.katana.router.http.compression.ResponseCompressor.Encoding;
+import co.casterlabs.katana.router.http.files.StaticFile;
+import co.casterlabs.katana.router.http.files.StaticHeaders;
+import co.casterlabs.rhs.HttpStatus;
+import co.casterlabs.rhs.protocol.HeaderValue;
+import co.casterlabs.rhs.protocol.http.HttpResponse;
+import co.casterlabs.rhs.protocol.http.HttpResponse.ResponseContent;
+import co.casterlabs.rhs.protocol.http.HttpSession;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Serves files compressed without burning CPU on every request. Precompressed
+ * sidecars (`foo.js.br`, `foo.js.gz`) win if they exist, otherwise we compress
+ * the file once and keep the result around, keyed by path and mtime so edits
+ * are picked up.
+ *
+ * Range requests always get the identity file, that way byte offsets mean the
+ * same thing no matter what was negotiated earlier.
+ */
+public class StaticCompression {
+    // In order of preference, for ties.
+    private static final String[][] SIDECARS = {
+            {
+                    "br",
+                    ".br"
+            },
+            {
+                    "gzip",
+                    ".gz"
+            }
+    };
+
+    private final LruCache<String, byte[]> variants;
+    private final long maxEntrySize;
+    private final boolean servePrecompressed;
+
+    private final @Getter AtomicLong sidecarHits = new AtomicLong();
+    private final @Getter AtomicLong variantHits = new AtomicLong();
+    private final @Getter AtomicLong variantMisses = new AtomicLong();
+
+    public StaticCompression(long maxSize, long maxEntrySize, boolean servePrecompressed) {
+        this.variants = new LruCache<>(maxSize, (v) -> v.length + 64);
+        this.maxEntrySize = maxEntrySize;
+        this.servePrecompressed = servePrecompressed;
+    }
+
+    /**
+     * @param etag the ETag of the identity file, if any. Encoded responses get a
+     *             suffixed version of it.
+     */
+    public HttpResponse respond(@NonNull HttpSession session, @NonNull HttpCompressionConfiguration config, @NonNull HttpStatus status, @NonNull StaticFile file, @Nullable String etag) throws IOException {
+        String mime = file.getMime();
+        long length = file.getLength();
+
+        boolean compressible = this.servePrecompressed || (config.enabled && ResponseCompressor.isCompressible(config, mime, length));
+        if (!compressible) {
+            return tag(file.toResponse(session, status), etag, null);
+        }
+
+        HeaderValue acceptEncoding = session.headers().getSingle("Accept-Encoding");
+        if ((acceptEncoding == null) || (session.headers().getSingle("Range") != null)) {
+            return identity(session, status, file, etag);
+        }
+
+        if (this.servePrecompressed) {
+            String[] sidecar = findSidecar(acceptEncoding.raw(), file);
+            if (sidecar != null) {
+                this.sidecarHits.incrementAndGet();
+
+                File sidecarFile = new File(file.getFile().getPath() + sidecar[1]);
+                HttpResponse response = new HttpResponse(StaticFile.of(sidecarFile).content(), status)
+                    .mime(mime)
+                    .header("Content-Encoding", sidecar[0])
+                    .header("Vary", "Accept-Encoding");
+                return tag(response, etag, sidecar[0]);
+            }
+        }
+
+        if (!config.enabled || !ResponseCompressor.isCompressible(config, mime, length)) {
+            return identity(session, status, file, etag);
+        }
+
+        Encoding encoding = ResponseCompressor.negotiate(acceptEncoding.raw());
+        if (encoding == null) {
+            return identity(session, status, file, etag);
+        }
+
+        if (length > this.maxEntrySize) {
+            // Too big to keep around, just stream it.
+            return ResponseCompressor.respondWithFile(session, config, status, file, etag);
+        }
+
+        String key = file.getFile().getPath() + '\n' + file.getLastModified() + '\n' + encoding.getToken();
+        byte[] compressed = this.variants.get(key);
+        if (compressed == null) {
+            this.variantMisses.incrementAndGet();
+            compressed = compress(file, encoding, config.level);
+            this.variants.put(key, compressed);
+        } else {
+            this.variantHits.incrementAndGet();
+        }
+
+        HttpResponse response = new HttpResponse(bytesContent(compressed), status)
+            .mime(mime)
+            .header("Content-Encoding", encoding.getToken())
+            .header("Vary", "Accept-Encoding");
+        return tag(response, etag, encoding.getToken());
+    }
+
+    private static HttpResponse identity(HttpSession session, HttpStatus status, StaticFile file, @Nullable String etag) throws IOException {
+        HttpResponse response = file.toResponse(session, status)
+            .header("Vary", "Accept-Encoding");
+        return tag(response, etag, null);
+    }
+
+    static HttpResponse tag(HttpResponse response, @Nullable String etag, @Nullable String encoding) {
+        if (etag != null) {
+            response.header("ETag", StaticHeaders.withEncoding(etag, encoding));
+        }
+        return response;
+    }
+
+    public int count() {
+        return this.variants.size();
+    }
+
+    public long size() {
+        return this.variants.weight();
+    }
+
+    private static @Nullable String[] findSidecar(String acceptEncoding, StaticFile file) {
+        String[] best = null;
+        double bestQuality = 0;
+
+        for (String[] sidecar : SIDECARS) {
+            double quality = HttpUtil.encodingQuality(acceptEncoding, sidecar[0]);
+            if (quality <= bestQuality) continue;
+
+            File sidecarFile = new File(file.getFile().getPath() + sidecar[1]);
+            if (sidecarFile.isFile() && (sidecarFile.lastModified() >= file.getLastModified())) {
+                // Older sidecars are probably from a previous build, so we ignore them.
+                best = sidecar;
+                bestQuality = quality;
+            }
+        }
+
+        return best;
+    }
+
+    private static byte[] compress(StaticFile file, Encoding encoding, int level) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.max(64, file.getLength() / 4));
+
+        try (CompressingOutputStream out = new CompressingOutputStream(buffer, encoding, level)) {
+            file.content().write(0, out);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    private static ResponseContent bytesContent(byte[] bytes) {
+        return new ResponseContent() {
+            @Override
+            public void write(int recommendedBufferSize, OutputStream out) throws IOException {
+                out.write(bytes);
+            }
+
+            @Override
+            public long length() {
+                return bytes.length;
+            }
+
+            @Override
+            public void close() throws IOException {} // NOOP
+        };
+    }
+
+}
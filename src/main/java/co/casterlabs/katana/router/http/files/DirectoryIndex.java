@@ -0,0 +1,217 @@
+package co.casterlabs.katana.router.http.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.DirectoryWatcher;
+import co.casterlabs.katana.LruCache;
+import co.casterlabs.katana.router.http.HttpUtil;
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+
+/**
+ * Resolves request paths the way StaticServlet likes them (default files,
+ * missing extensions) without listing a directory on every request. Listings
+ * are built lazily and thrown away when the watcher tells us the directory
+ * changed. Misses are remembered too, so garbage URLs cost a single lookup.
+ *
+ * If we can't watch the directory, listings expire after a second and misses
+ * aren't remembered at all.
+ */
+public class DirectoryIndex {
+    private static final int MAX_LISTINGS = 1024;
+    private static final int MAX_MISSES = 4096;
+    private static final long CHECK_INTERVAL = 1000;
+
+    private final File root;
+    private final List<String> defaultFiles;
+    private final DirectoryWatcher watcher;
+
+    // Both are keyed by the path relative to the root, without leading or trailing slashes.
+    private final LruCache<String, Listing> listings = new LruCache<>(MAX_LISTINGS);
+    private final LruCache<String, Boolean> misses = new LruCache<>(MAX_MISSES);
+
+    // Bumped on every change, so we can tell if a lookup raced with one.
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile @Nullable Path rootPath;
+
+    public DirectoryIndex(@NonNull File root, @NonNull List<String> defaultFiles) {
+        this.root = root;
+        this.defaultFiles = defaultFiles;
+
+        this.watcher = new DirectoryWatcher(root, true) {
+            @Override
+            public void onChange(Path path, boolean structural) {
+                if (!structural) return; // Contents don't matter to us.
+
+                generation.incrementAndGet();
+                misses.clear(); // Anything could've started resolving.
+
+                if ((rootPath == null) || !path.startsWith(rootPath)) {
+                    listings.clear();
+                    return;
+                }
+
+                // The parent's listing changed, and if it was a directory then its listing is gone.
+                String relative = toKey(rootPath.relativize(path));
+                listings.remove(relative);
+                listings.remove(parentOf(relative));
+            }
+
+            @Override
+            public void onOverflow() {
+                generation.incrementAndGet();
+                invalidateAll();
+            }
+        };
+    }
+
+    public void start(@NonNull FastLogger logger) {
+        try {
+            this.rootPath = this.root.getCanonicalFile().toPath();
+            this.watcher.start();
+        } catch (IOException e) {
+            logger.warn("Couldn't watch %s for changes, directory listings will be refreshed every second instead:\n%s", this.root, e);
+        }
+    }
+
+    public void stop() {
+        this.watcher.close();
+        this.invalidateAll();
+    }
+
+    public void invalidateAll() {
+        this.listings.clear();
+        this.misses.clear();
+    }
+
+    /**
+     * @param  uri                   the request path, see
+     *                               {@link HttpUtil#normalizePath(String)}.
+     * @param  requireFileExtensions if false, `/about` can resolve to
+     *                               `about.html`.
+     *
+     * @return                       the file to serve, or null if there isn't one.
+     */
+    public @Nullable File resolve(@NonNull String uri, boolean requireFileExtensions) {
+        String key = trim(uri);
+        boolean watching = this.watcher.isAlive();
+
+        if (watching && (this.misses.get(key) != null)) {
+            return null;
+        }
+
+        long generation = this.generation.get();
+
+        File file = this.lookup(key, requireFileExtensions);
+        if ((file == null) && watching) {
+            this.misses.put(key, true);
+        }
+
+        if (this.generation.get() != generation) {
+            // Something changed while we were looking, what we cached might be stale.
+            this.invalidateAll();
+        }
+        return file;
+    }
+
+    private @Nullable File lookup(String key, boolean requireFileExtensions) {
+        File file = key.isEmpty() ? this.root : new File(this.root, key);
+
+        if (file.isFile()) {
+            return file;
+        }
+
+        if (file.isDirectory()) {
+            Listing listing = this.listing(key, file);
+            return (listing == null) ? null : listing.defaultFile;
+        }
+
+        String name = file.getName();
+        if (requireFileExtensions || name.contains(".")) {
+            return null;
+        }
+
+        String parentKey = parentOf(key);
+        File parent = parentKey.isEmpty() ? this.root : new File(this.root, parentKey);
+
+        Listing listing = this.listing(parentKey, parent);
+        return (listing == null) ? null : listing.byBaseName.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    private @Nullable Listing listing(String key, File directory) {
+        Listing listing = this.listings.get(key);
+
+        if ((listing != null) && !this.watcher.isAlive() && (System.currentTimeMillis() - listing.builtAt > CHECK_INTERVAL)) {
+            listing = null; // Stale.
+        }
+
+        if (listing == null) {
+            File[] files = directory.listFiles();
+            if (files == null) return null; // Not a directory (anymore).
+
+            listing = new Listing(files, this.defaultFiles);
+            this.listings.put(key, listing);
+        }
+
+        return listing;
+    }
+
+    static String trim(String uri) {
+        int start = 0;
+        int end = uri.length();
+        while ((start < end) && (uri.charAt(start) == '/')) start++;
+        while ((end > start) && (uri.charAt(end - 1) == '/')) end--;
+        return uri.substring(start, end);
+    }
+
+    static String parentOf(String key) {
+        int slash = key.lastIndexOf('/');
+        return (slash == -1) ? "" : key.substring(0, slash);
+    }
+
+    private static String toKey(Path relative) {
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    private static class Listing {
+        private final long builtAt = System.currentTimeMillis();
+
+        // Lowercased name without any extensions -> first file with it.
+        private final Map<String, File> byBaseName = new HashMap<>();
+        private final @Nullable File defaultFile;
+
+        private Listing(File[] files, List<String> defaultFiles) {
+            Map<String, File> byName = new HashMap<>();
+
+            for (File file : files) {
+                if (!file.isFile()) continue;
+
+                String name = file.getName();
+                byName.put(name, file);
+
+                int dot = name.indexOf('.');
+                String baseName = (dot == -1) ? name : name.substring(0, dot);
+                this.byBaseName.putIfAbsent(baseName.toLowerCase(Locale.ROOT), file);
+            }
+
+            File defaultFile = null;
+            for (String def : defaultFiles) {
+                defaultFile = byName.get(def);
+                if (defaultFile != null) break;
+            }
+            this.defaultFile = defaultFile;
+        }
+
+    }
+
+}
@@ -0,0 +1,18 @@
+package co.casterlabs.katana.router.http.files;
+
+public enum ETagMode {
+    NONE,
+
+    /**
+     * Derived from the size and mtime, free to compute but only weakly
+     * comparable.
+     */
+    WEAK,
+
+    /**
+     * A hash of the contents, computed once per version of the file.
+     */
+    STRONG,
+    ;
+
+}
@@ -0,0 +1,201 @@
+package co.casterlabs.katana.router.http.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.DirectoryWatcher;
+import co.casterlabs.katana.LruCache;
+import lombok.Getter;
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+
+/**
+ * Caches what request paths resolve to and the files themselves, so hot files
+ * get served without touching the filesystem. Changes are picked up with a
+ * {@link DirectoryWatcher}, if that isn't possible we fall back to checking the
+ * mtime every so often.
+ */
+@Getter
+public class FileCache {
+    private static final int MAX_RESOLUTIONS = 8192;
+    private static final long CHECK_INTERVAL = 1000;
+    private static final int PRELOAD_CONCURRENCY = 64;
+
+    private final LruCache<String, String> resolutions = new LruCache<>(MAX_RESOLUTIONS);
+    private final LruCache<String, StaticFile> files;
+    private final File directory;
+    private final long maxSize;
+    private final long maxFileSize;
+    private final DirectoryWatcher watcher;
+
+    // Bumped on every change, so we can tell if a load raced with one.
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param directory the directory to watch for changes.
+     */
+    public FileCache(@NonNull File directory, boolean recursive, long maxSize, long maxFileSize) {
+        this.files = new LruCache<>(maxSize, StaticFile::weight);
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.maxFileSize = maxFileSize;
+
+        this.watcher = new DirectoryWatcher(directory, recursive) {
+            @Override
+            public void onChange(Path path, boolean structural) {
+                generation.incrementAndGet();
+
+                if (structural) {
+                    // Could change what any path resolves to.
+                    invalidateAll();
+                } else {
+                    files.remove(path.toFile().getAbsolutePath());
+                }
+            }
+
+            @Override
+            public void onOverflow() {
+                generation.incrementAndGet();
+                invalidateAll();
+            }
+        };
+    }
+
+    public void start(@NonNull FastLogger logger) {
+        try {
+            this.watcher.start();
+        } catch (IOException e) {
+            logger.warn("Couldn't watch for file changes, falling back to polling:\n%s", e);
+        }
+    }
+
+    public void stop() {
+        this.watcher.close();
+        this.invalidateAll();
+    }
+
+    public @Nullable StaticFile get(@NonNull String key) {
+        String path = this.resolutions.get(key);
+        StaticFile file = (path == null) ? null : this.files.get(path);
+
+        if (file == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+
+        if (!this.watcher.isAlive()) {
+            long now = System.currentTimeMillis();
+            if (now - file.checkedAt > CHECK_INTERVAL) {
+                if (!file.isUnchanged()) {
+                    this.invalidateAll();
+                    this.misses.incrementAndGet();
+                    return null;
+                }
+                file.checkedAt = now;
+            }
+        }
+
+        this.hits.incrementAndGet();
+        return file;
+    }
+
+    /**
+     * Loads the file that the key resolved to and remembers it.
+     */
+    public StaticFile put(@NonNull String key, @NonNull File file) throws IOException {
+        long generation = this.generation.get();
+
+        StaticFile loaded = StaticFile.load(file, this.maxFileSize);
+        String path = file.getCanonicalPath(); // The watcher reports canonical paths.
+
+        this.files.put(path, loaded);
+        this.resolutions.put(key, path);
+
+        if (this.generation.get() != generation) {
+            // Something changed while we were loading, what we have might be stale.
+            this.files.remove(path);
+            this.resolutions.remove(key);
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Walks the directory and loads every file that fits, smallest first, until
+     * the cache is full. That way the first requests after a (re)start don't
+     * have to wait on a cold disk.
+     *
+     * @param warm called with every file that got loaded, e.g to precompute
+     *             validators.
+     */
+    public void preload(@NonNull FastLogger logger, @NonNull Consumer<StaticFile> warm) {
+        long start = System.currentTimeMillis();
+        AtomicLong count = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(this.directory.toPath())) {
+            paths = walk
+                .filter(Files::isRegularFile)
+                .filter((p) -> p.toFile().length() <= this.maxFileSize)
+                .sorted(Comparator.comparingLong((p) -> p.toFile().length()))
+                .collect(Collectors.toList());
+        } catch (IOException e) {
+            logger.warn("Couldn't preload %s:\n%s", this.directory, e);
+            return;
+        }
+
+        // Leave some room, the LRU starts evicting before it's completely full.
+        long budget = this.maxSize - (this.maxSize / 10);
+        Semaphore permits = new Semaphore(PRELOAD_CONCURRENCY); // Don't open thousands of files at once.
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path path : paths) {
+                if (this.files.weight() >= budget) break;
+
+                permits.acquireUninterruptibly();
+                executor.submit(() -> {
+                    try {
+                        String key = '/' + this.directory.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+                        StaticFile file = this.put(key, path.toFile());
+                        warm.accept(file);
+
+                        count.incrementAndGet();
+                        bytes.addAndGet(file.getLength());
+                    } catch (Throwable t) {
+                        logger.debug("Couldn't preload %s:\n%s", path, t);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+
+        logger.info(
+            "Preloaded %d files (%dKB) from %s in %dms.",
+            count.get(), bytes.get() / 1024, this.directory, System.currentTimeMillis() - start
+        );
+    }
+
+    public void invalidateAll() {
+        this.resolutions.clear();
+        this.files.clear();
+    }
+
+}
@@ -0,0 +1,122 @@
+package co.casterlabs.katana.router.http.files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.BufferPool;
+import co.casterlabs.katana.router.http.HttpUtil;
+import co.casterlabs.rhs.HttpStatus;
+import co.casterlabs.rhs.protocol.http.HttpResponse;
+import co.casterlabs.rhs.protocol.http.HttpResponse.ResponseContent;
+import co.casterlabs.rhs.protocol.http.HttpSession;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * A file along with everything we need to serve it, so that we don't have to go
+ * back to the filesystem for every little thing. Small files can have their
+ * contents held in memory too.
+ */
+@Getter
+public class StaticFile {
+    private final File file;
+    private final @Nullable String mime;
+    private final long length;
+    private final long lastModified;
+
+    /**
+     * Null if the file is to be read from disk.
+     */
+    private final @Nullable byte[] bytes;
+
+    // For when we can't watch the file, see FileCache.
+    volatile long checkedAt = System.currentTimeMillis();
+
+    // Memoized by StaticHeaders.
+    volatile @Nullable String strongETag;
+
+    private StaticFile(File file, long length, long lastModified, @Nullable byte[] bytes) {
+        this.file = file;
+        this.mime = HttpUtil.guessMime(file);
+        this.length = length;
+        this.lastModified = lastModified;
+        this.bytes = bytes;
+    }
+
+    public static StaticFile of(@NonNull File file) {
+        return new StaticFile(file, file.length(), file.lastModified(), null);
+    }
+
+    /**
+     * Reads the file into memory if it's no bigger than maxSize.
+     */
+    public static StaticFile load(@NonNull File file, long maxSize) throws IOException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (length > maxSize) {
+            return new StaticFile(file, length, lastModified, null);
+        }
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        return new StaticFile(file, bytes.length, lastModified, bytes);
+    }
+
+    /**
+     * @return whether or not the file on disk still looks like this.
+     */
+    public boolean isUnchanged() {
+        return (this.file.lastModified() == this.lastModified) && (this.file.length() == this.length);
+    }
+
+    public long weight() {
+        return (this.bytes == null ? 0 : this.bytes.length) + 256;
+    }
+
+    public ResponseContent content() {
+        return new ResponseContent() {
+            @Override
+            public void write(int recommendedBufferSize, OutputStream out) throws IOException {
+                if (bytes != null) {
+                    out.write(bytes);
+                    return;
+                }
+
+                byte[] buffer = BufferPool.acquire(length);
+                try (InputStream in = new FileInputStream(file)) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    BufferPool.release(buffer);
+                }
+            }
+
+            @Override
+            public long length() {
+                return length;
+            }
+
+            @Override
+            public void close() throws IOException {} // NOOP
+        };
+    }
+
+    /**
+     * Serves the file as-is, ranges are left to rhs.
+     */
+    public HttpResponse toResponse(@NonNull HttpSession session, @NonNull HttpStatus status) throws IOException {
+        if ((this.bytes == null) || (session.headers().getSingle("Range") != null)) {
+            return HttpResponse.newRangedFileResponse(session, status, this.file);
+        }
+
+        return new HttpResponse(this.content(), status).mime(this.mime);
+    }
+
+}
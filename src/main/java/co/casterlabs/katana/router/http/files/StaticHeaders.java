@@ -0,0 +1,236 @@
+package co.casterlabs.katana.router.http.files;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.LruCache;
+import co.casterlabs.katana.router.http.HttpUtil;
+import co.casterlabs.rhs.HttpStatus.StandardHttpStatus;
+import co.casterlabs.rhs.protocol.HeaderValue;
+import co.casterlabs.rhs.protocol.http.HttpResponse;
+import co.casterlabs.rhs.protocol.http.HttpSession;
+import lombok.NonNull;
+
+/**
+ * Validators (ETag/Last-Modified), conditional requests and Cache-Control
+ * rules for servlets that serve files.
+ */
+public class StaticHeaders {
+    private static final int MAX_HASHES = 4096;
+
+    private final ETagMode etagMode;
+    private final List<Rule> rules = new ArrayList<>();
+
+    // Keyed by path, mtime and size. Only used if the file isn't in a FileCache.
+    private final LruCache<String, String> hashes = new LruCache<>(MAX_HASHES);
+
+    /**
+     * @param cacheControl rules in the form of `pattern value`, e.g
+     *                     `/assets/*.{hash}.js public, max-age=31536000,
+     *                     immutable`. See {@link #compile(String)} for the
+     *                     pattern syntax, the first match wins.
+     */
+    public StaticHeaders(@NonNull ETagMode etagMode, @NonNull String[] cacheControl) {
+        this.etagMode = etagMode;
+
+        for (String rule : cacheControl) {
+            int split = rule.indexOf(' ');
+            this.rules.add(new Rule(compile(rule.substring(0, split)), rule.substring(split + 1).trim()));
+        }
+    }
+
+    /**
+     * @return whether or not the rule is in the form of `pattern value`.
+     */
+    public static boolean isValidRule(@Nullable String rule) {
+        return (rule != null) && (rule.indexOf(' ') > 0) && !rule.substring(rule.indexOf(' ')).isBlank();
+    }
+
+    /**
+     * Patterns starting with `*.` match on the extension. Otherwise they're
+     * matched against the whole request path, where `*` matches within a segment,
+     * `**` matches across segments and `{hash}` matches a build fingerprint.
+     */
+    private static Pattern compile(String pattern) {
+        if (pattern.startsWith("*.") && (pattern.indexOf('/') == -1)) {
+            return Pattern.compile(".*" + Pattern.quote(pattern.substring(1)));
+        }
+
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+
+            if (pattern.startsWith("**", i)) {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (pattern.startsWith("{hash}", i)) {
+                regex.append("[A-Za-z0-9_-]{8,}");
+                i += "{hash}".length() - 1;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    public @Nullable String cacheControl(@NonNull String path) {
+        for (Rule rule : this.rules) {
+            if (rule.pattern.matcher(path).matches()) {
+                return rule.value;
+            }
+        }
+        return null;
+    }
+
+    public @Nullable String etag(@NonNull StaticFile file) throws IOException {
+        switch (this.etagMode) {
+            case WEAK:
+                return String.format("W/\"%x-%x\"", file.getLength(), file.getLastModified());
+
+            case STRONG:
+                if (file.strongETag != null) return file.strongETag;
+
+                String key = file.getFile().getPath() + '\n' + file.getLastModified() + '\n' + file.getLength();
+                String etag = this.hashes.get(key);
+                if (etag == null) {
+                    etag = hash(file);
+                    this.hashes.put(key, etag);
+                }
+
+                file.strongETag = etag;
+                return etag;
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Archives already carry a CRC of every entry, so we don't have to hash
+     * anything ourselves.
+     */
+    public @Nullable String etag(@NonNull ZipArchive.Entry entry) {
+        switch (this.etagMode) {
+            case WEAK:
+                return String.format("W/\"%08x-%x\"", entry.getCrc(), entry.getSize());
+
+            case STRONG:
+                return String.format("\"%08x-%x\"", entry.getCrc(), entry.getSize());
+
+            default:
+                return null;
+        }
+    }
+
+    private static String hash(StaticFile file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+                file.content().write(0, out);
+            }
+
+            // 96 bits is plenty to tell versions of a file apart.
+            byte[] hash = digest.digest();
+            return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(hash).substring(0, 16) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return the ETag for an encoded representation of the file, these have to
+     *         differ from the identity one.
+     */
+    public static @Nullable String withEncoding(@Nullable String etag, @Nullable String encoding) {
+        if ((etag == null) || (encoding == null)) return etag;
+        return etag.substring(0, etag.length() - 1) + '-' + encoding + '"';
+    }
+
+    /**
+     * @return a 304 if the client's copy is still good (RFC 9110 section 13.2.2),
+     *         otherwise null.
+     */
+    public @Nullable HttpResponse checkNotModified(@NonNull HttpSession session, long lastModified, @Nullable String etag, @Nullable String cacheControl) {
+        if (!session.rawMethod().equals("GET") && !session.rawMethod().equals("HEAD")) return null;
+
+        HeaderValue ifNoneMatch = session.headers().getSingle("If-None-Match");
+        HeaderValue ifModifiedSince = session.headers().getSingle("If-Modified-Since");
+
+        boolean notModified;
+        if (ifNoneMatch != null) {
+            // If-None-Match wins, If-Modified-Since gets ignored.
+            notModified = (etag != null) && matches(ifNoneMatch.raw(), etag);
+        } else if (ifModifiedSince != null) {
+            long since = HttpUtil.parseDate(ifModifiedSince.raw());
+            notModified = (since != -1) && (lastModified / 1000 <= since / 1000);
+        } else {
+            return null;
+        }
+
+        if (!notModified) return null;
+
+        HttpResponse response = HttpResponse.newFixedLengthResponse(StandardHttpStatus.NOT_MODIFIED);
+        this.apply(response, lastModified, etag, cacheControl);
+        return response;
+    }
+
+    public HttpResponse apply(@NonNull HttpResponse response, long lastModified, @Nullable String etag, @Nullable String cacheControl) {
+        response.header("Last-Modified", HttpUtil.formatDate(lastModified));
+        if (etag != null) {
+            response.header("ETag", etag);
+        }
+        if (cacheControl != null) {
+            response.header("Cache-Control", cacheControl);
+        }
+        return response;
+    }
+
+    /**
+     * Weak comparison, ignoring any encoding suffix since a 304 doesn't carry a
+     * body anyways.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch.trim().equals("*")) return true;
+
+        String opaque = opaque(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String other = opaque(candidate.trim());
+            if (other.equals(opaque)) return true;
+
+            int dash = other.lastIndexOf('-');
+            if ((dash != -1) && other.substring(0, dash).equals(opaque)) return true;
+        }
+        return false;
+    }
+
+    private static String opaque(String etag) {
+        if (etag.startsWith("W/")) etag = etag.substring(2);
+        if ((etag.length() >= 2) && etag.startsWith("\"") && etag.endsWith("\"")) {
+            etag = etag.substring(1, etag.length() - 1);
+        }
+        return etag;
+    }
+
+    private static class Rule {
+        private final Pattern pattern;
+        private final String value;
+
+        private Rule(Pattern pattern, String value) {
+            this.pattern = pattern;
+            this.value = value;
+        }
+
+    }
+
+}
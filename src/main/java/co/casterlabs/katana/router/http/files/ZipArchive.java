@@ -0,0 +1,433 @@
+package co.casterlabs.katana.router.http.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.BufferPool;
+import co.casterlabs.katana.router.http.HttpRouterConfiguration.HttpCompressionConfiguration;
+import co.casterlabs.katana.router.http.HttpUtil;
+import co.casterlabs.katana.router.http.compression.ResponseCompressor;
+import co.casterlabs.katana.router.http.compression.ResponseCompressor.Encoding;
+import co.casterlabs.rhs.HttpStatus;
+import co.casterlabs.rhs.protocol.HeaderValue;
+import co.casterlabs.rhs.protocol.http.HttpResponse;
+import co.casterlabs.rhs.protocol.http.HttpResponse.ResponseContent;
+import co.casterlabs.rhs.protocol.http.HttpSession;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * A read-only, memory-mapped zip (or jar). Only the central directory gets
+ * parsed, entries are served straight out of the mapping. Deflated entries are
+ * already raw deflate streams, so clients that accept gzip get them as-is with
+ * a gzip header and trailer wrapped around them.
+ *
+ * Instances never change, see {@link ZipSite} for picking up a new archive.
+ */
+public class ZipArchive {
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final byte[] GZIP_HEADER = {
+            0x1f, (byte) 0x8b, // Magic
+            8, // Deflate
+            0, // Flags
+            0, 0, 0, 0, // MTime
+            0, // Extra flags
+            (byte) 0xff // OS (unknown)
+    };
+
+    private final @Getter File file;
+    private final @Getter long length;
+    private final @Getter long lastModified;
+    private final MappedByteBuffer map;
+
+    // Keyed by the path inside the archive, without leading or trailing slashes.
+    private final Map<String, Entry> files = new HashMap<>();
+    private final Set<String> directories = new HashSet<>();
+    private final Map<String, Entry> defaults = new HashMap<>();
+    // parent + '/' + lowercased name without any extensions.
+    private final Map<String, Entry> byBaseName = new HashMap<>();
+
+    private ZipArchive(File file, long length, long lastModified, MappedByteBuffer map, List<String> defaultFiles) throws IOException {
+        this.file = file;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.map = map;
+
+        this.readCentralDirectory();
+
+        this.directories.add("");
+        for (String name : this.files.keySet()) {
+            for (String parent = DirectoryIndex.parentOf(name); !parent.isEmpty(); parent = DirectoryIndex.parentOf(parent)) {
+                this.directories.add(parent);
+            }
+        }
+
+        for (String directory : this.directories) {
+            for (String def : defaultFiles) {
+                Entry entry = this.files.get(directory.isEmpty() ? def : directory + '/' + def);
+                if (entry != null) {
+                    this.defaults.put(directory, entry);
+                    break;
+                }
+            }
+        }
+    }
+
+    public static ZipArchive open(@NonNull File file, @NonNull List<String> defaultFiles) throws IOException {
+        long lastModified = file.lastModified();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Archives over 2GB aren't supported.");
+            }
+
+            // The mapping outlives the channel.
+            MappedByteBuffer map = channel.map(MapMode.READ_ONLY, 0, length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+
+            return new ZipArchive(file, length, lastModified, map, defaultFiles);
+        }
+    }
+
+    /**
+     * @return whether or not the file on disk still looks like this.
+     */
+    public boolean isUnchanged() {
+        return (this.file.lastModified() == this.lastModified) && (this.file.length() == this.length);
+    }
+
+    public int count() {
+        return this.files.size();
+    }
+
+    /**
+     * Faults the whole mapping into memory, so the first requests don't have to
+     * wait on the disk.
+     */
+    public void preload() {
+        this.map.load();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        int eocd = -1;
+        int limit = (int) Math.max(0, this.length - EOCD_SIZE - MAX_COMMENT_SIZE);
+        for (int i = (int) this.length - EOCD_SIZE; i >= limit; i--) {
+            if (this.map.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd == -1) {
+            throw new IOException("Not a zip file (couldn't find the end of central directory).");
+        }
+
+        int count = Short.toUnsignedInt(this.map.getShort(eocd + 10));
+        long offset = Integer.toUnsignedLong(this.map.getInt(eocd + 16));
+        if ((count == 0xFFFF) || (offset == 0xFFFFFFFFL)) {
+            throw new IOException("Zip64 archives aren't supported.");
+        }
+
+        int position = (int) offset;
+        for (int i = 0; i < count; i++) {
+            if ((position + 46 > this.length) || (this.map.getInt(position) != CENTRAL_SIGNATURE)) {
+                throw new IOException("Corrupt central directory at entry " + i + '.');
+            }
+
+            int flags = Short.toUnsignedInt(this.map.getShort(position + 8));
+            int method = Short.toUnsignedInt(this.map.getShort(position + 10));
+            int dosTime = Short.toUnsignedInt(this.map.getShort(position + 12));
+            int dosDate = Short.toUnsignedInt(this.map.getShort(position + 14));
+            int crc = this.map.getInt(position + 16);
+            long compressedSize = Integer.toUnsignedLong(this.map.getInt(position + 20));
+            long size = Integer.toUnsignedLong(this.map.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(this.map.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(this.map.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(this.map.getShort(position + 32));
+            long localOffset = Integer.toUnsignedLong(this.map.getInt(position + 42));
+
+            byte[] nameBytes = new byte[nameLength];
+            this.map.get(position + 46, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            position += 46 + nameLength + extraLength + commentLength;
+
+            boolean encrypted = (flags & 1) != 0;
+            if (name.endsWith("/") || encrypted || ((method != STORED) && (method != DEFLATED))) {
+                continue; // Directories are implied by the files, everything else we can't serve.
+            }
+
+            if ((localOffset + 30 > this.length) || (this.map.getInt((int) localOffset) != LOCAL_SIGNATURE)) {
+                throw new IOException("Corrupt local header for " + name + '.');
+            }
+
+            // The local header can have a different extra field than the central one.
+            long dataOffset = localOffset + 30
+                + Short.toUnsignedInt(this.map.getShort((int) localOffset + 26))
+                + Short.toUnsignedInt(this.map.getShort((int) localOffset + 28));
+            if (dataOffset + compressedSize > this.length) {
+                throw new IOException("Truncated data for " + name + '.');
+            }
+
+            name = DirectoryIndex.trim(name);
+            Entry entry = new Entry(name, method, crc, compressedSize, size, (int) dataOffset, dosToMillis(dosDate, dosTime, this.lastModified));
+            this.files.put(name, entry);
+
+            int slash = name.lastIndexOf('/');
+            String fileName = name.substring(slash + 1);
+            int dot = fileName.indexOf('.');
+            String baseName = (dot == -1) ? fileName : fileName.substring(0, dot);
+            this.byBaseName.putIfAbsent(DirectoryIndex.parentOf(name) + '/' + baseName.toLowerCase(Locale.ROOT), entry);
+        }
+    }
+
+    /**
+     * Resolves request paths the same way {@link DirectoryIndex} does.
+     *
+     * @return the entry to serve, or null if there isn't one.
+     */
+    public @Nullable Entry resolve(@NonNull String uri, boolean requireFileExtensions) {
+        String key = DirectoryIndex.trim(uri);
+
+        Entry entry = this.files.get(key);
+        if (entry != null) return entry;
+
+        if (this.directories.contains(key)) {
+            return this.defaults.get(key);
+        }
+
+        String name = key.substring(key.lastIndexOf('/') + 1);
+        if (requireFileExtensions || name.contains(".")) {
+            return null;
+        }
+
+        return this.byBaseName.get(DirectoryIndex.parentOf(key) + '/' + name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Range requests are ignored, clients get the whole entry.
+     *
+     * @param etag the ETag of the identity entry, if any. Encoded responses get a
+     *             suffixed version of it.
+     */
+    public HttpResponse respond(@NonNull HttpSession session, @NonNull HttpCompressionConfiguration config, @NonNull HttpStatus status, @NonNull Entry entry, @Nullable String etag) {
+        HeaderValue acceptEncoding = session.headers().getSingle("Accept-Encoding");
+        String mime = entry.getMime();
+
+        if (entry.method == DEFLATED) {
+            boolean gzip = (acceptEncoding != null) && (HttpUtil.encodingQuality(acceptEncoding.raw(), "gzip") > 0);
+            ResponseContent content = gzip ? this.gzipContent(entry) : this.inflatingContent(entry);
+
+            return tag(
+                new HttpResponse(content, status)
+                    .mime(mime)
+                    .header("Vary", "Accept-Encoding"),
+                etag,
+                gzip ? "gzip" : null
+            );
+        }
+
+        if (!config.enabled || !ResponseCompressor.isCompressible(config, mime, entry.size)) {
+            return tag(new HttpResponse(this.storedContent(entry), status).mime(mime), etag, null);
+        }
+
+        Encoding encoding = ResponseCompressor.negotiate(acceptEncoding == null ? null : acceptEncoding.raw());
+        if (encoding == null) {
+            return tag(
+                new HttpResponse(this.storedContent(entry), status)
+                    .mime(mime)
+                    .header("Vary", "Accept-Encoding"),
+                etag,
+                null
+            );
+        }
+
+        return tag(
+            new HttpResponse(ResponseCompressor.compress(this.storedContent(entry), encoding, config.level), status)
+                .mime(mime)
+                .header("Vary", "Accept-Encoding"),
+            etag,
+            encoding.getToken()
+        );
+    }
+
+    private static HttpResponse tag(HttpResponse response, @Nullable String etag, @Nullable String encoding) {
+        if (encoding != null) {
+            response.header("Content-Encoding", encoding);
+        }
+        if (etag != null) {
+            response.header("ETag", StaticHeaders.withEncoding(etag, encoding));
+        }
+        return response;
+    }
+
+    private ByteBuffer slice(Entry entry) {
+        return this.map.slice(entry.dataOffset, (int) entry.compressedSize);
+    }
+
+    private ResponseContent storedContent(Entry entry) {
+        return new ResponseContent() {
+            @Override
+            public void write(int recommendedBufferSize, OutputStream out) throws IOException {
+                writeBuffer(slice(entry), out);
+            }
+
+            @Override
+            public long length() {
+                return entry.size;
+            }
+
+            @Override
+            public void close() throws IOException {} // NOOP
+        };
+    }
+
+    private ResponseContent gzipContent(Entry entry) {
+        return new ResponseContent() {
+            @Override
+            public void write(int recommendedBufferSize, OutputStream out) throws IOException {
+                out.write(GZIP_HEADER);
+                writeBuffer(slice(entry), out);
+
+                ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                trailer.putInt(entry.crc);
+                trailer.putInt((int) entry.size); // ISIZE is mod 2^32 anyways.
+                out.write(trailer.array());
+            }
+
+            @Override
+            public long length() {
+                return GZIP_HEADER.length + entry.compressedSize + 8;
+            }
+
+            @Override
+            public void close() throws IOException {} // NOOP
+        };
+    }
+
+    private ResponseContent inflatingContent(Entry entry) {
+        return new ResponseContent() {
+            @Override
+            public void write(int recommendedBufferSize, OutputStream out) throws IOException {
+                Inflater inflater = new Inflater(true);
+                byte[] buffer = BufferPool.acquire(entry.size);
+                try {
+                    inflater.setInput(slice(entry));
+
+                    while (!inflater.finished()) {
+                        int read = inflater.inflate(buffer);
+                        if ((read == 0) && (inflater.needsInput() || inflater.needsDictionary())) {
+                            throw new IOException("Entry is truncated: " + entry.name);
+                        }
+                        out.write(buffer, 0, read);
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Entry is corrupt: " + entry.name, e);
+                } finally {
+                    inflater.end();
+                    BufferPool.release(buffer);
+                }
+            }
+
+            @Override
+            public long length() {
+                return entry.size;
+            }
+
+            @Override
+            public void close() throws IOException {} // NOOP
+        };
+    }
+
+    private static void writeBuffer(ByteBuffer buffer, OutputStream out) throws IOException {
+        byte[] heap = BufferPool.acquire(buffer.remaining());
+        try {
+            while (buffer.hasRemaining()) {
+                int chunk = Math.min(heap.length, buffer.remaining());
+                buffer.get(heap, 0, chunk);
+                out.write(heap, 0, chunk);
+            }
+        } finally {
+            BufferPool.release(heap);
+        }
+    }
+
+    private static long dosToMillis(int date, int time, long fallback) {
+        try {
+            return LocalDateTime.of(
+                ((date >> 9) & 0x7f) + 1980,
+                (date >> 5) & 0x0f,
+                date & 0x1f,
+                (time >> 11) & 0x1f,
+                (time >> 5) & 0x3f,
+                Math.min((time & 0x1f) * 2, 59)
+            )
+                .atZone(ZoneId.systemDefault())
+                .toInstant()
+                .toEpochMilli();
+        } catch (DateTimeException e) {
+            return fallback; // Garbage timestamp, happens.
+        }
+    }
+
+    @Getter
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final int crc;
+        private final long compressedSize;
+        private final long size;
+        private final int dataOffset;
+        private final long lastModified;
+
+        private volatile @Nullable String mime;
+
+        private Entry(String name, int method, int crc, long compressedSize, long size, int dataOffset, long lastModified) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.dataOffset = dataOffset;
+            this.lastModified = lastModified;
+        }
+
+        public @Nullable String getMime() {
+            if (this.mime == null) {
+                this.mime = HttpUtil.guessMime(new File(this.name));
+            }
+            return this.mime;
+        }
+
+    }
+
+}
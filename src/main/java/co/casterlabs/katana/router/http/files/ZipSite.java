@@ -0,0 +1,130 @@
+package co.casterlabs.katana.router.http.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.DirectoryWatcher;
+import lombok.NonNull;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+
+/**
+ * Keeps the latest version of an archive open. When the archive gets replaced
+ * we open the new one and swap it in, requests that are already being served
+ * keep using the old mapping until they're done.
+ *
+ * Deploy by renaming the new archive over the old one. Writing into the file in
+ * place will pull the rug out from under anything reading the mapping.
+ */
+public class ZipSite {
+    private static final long CHECK_INTERVAL = 1000;
+
+    private final File file;
+    private final List<String> defaultFiles;
+    private final boolean preload;
+    private final DirectoryWatcher watcher;
+
+    private volatile @Nullable Path path;
+    private volatile @Nullable ZipArchive archive;
+    private volatile long checkedAt = 0;
+
+    private FastLogger logger = new FastLogger("ZipSite");
+
+    /**
+     * @param preload whether or not to fault in the whole archive whenever it
+     *                gets (re)loaded.
+     */
+    public ZipSite(@NonNull File file, @NonNull List<String> defaultFiles, boolean preload) {
+        this.file = file.getAbsoluteFile();
+        this.defaultFiles = defaultFiles;
+        this.preload = preload;
+
+        // Watch the parent, the archive itself gets replaced rather than modified.
+        this.watcher = new DirectoryWatcher(this.file.getParentFile(), false) {
+            @Override
+            public void onChange(Path changed, boolean structural) {
+                if (changed.equals(path)) {
+                    reload();
+                }
+            }
+
+            @Override
+            public void onOverflow() {
+                reload();
+            }
+        };
+    }
+
+    public static boolean isArchive(@NonNull String path) {
+        String lower = path.toLowerCase();
+        return lower.endsWith(".zip") || lower.endsWith(".jar");
+    }
+
+    public void start(@NonNull FastLogger logger) {
+        this.logger = logger;
+        this.reload();
+
+        try {
+            this.path = this.file.getCanonicalFile().toPath();
+            this.watcher.start();
+        } catch (IOException e) {
+            logger.warn("Couldn't watch %s for changes, falling back to polling:\n%s", this.file, e);
+        }
+    }
+
+    public void stop() {
+        this.watcher.close();
+        this.archive = null; // The mapping goes away once the GC gets to it.
+    }
+
+    /**
+     * @return the current archive, or null if it couldn't be opened.
+     */
+    public @Nullable ZipArchive get() {
+        ZipArchive archive = this.archive;
+
+        if ((archive == null) || !this.watcher.isAlive()) {
+            long now = System.currentTimeMillis();
+            if (now - this.checkedAt > CHECK_INTERVAL) {
+                this.checkedAt = now;
+                if ((archive == null) || !archive.isUnchanged()) {
+                    this.reload();
+                    archive = this.archive;
+                }
+            }
+        }
+
+        return archive;
+    }
+
+    private synchronized void reload() {
+        ZipArchive current = this.archive;
+        if ((current != null) && current.isUnchanged()) return;
+
+        try {
+            long start = System.currentTimeMillis();
+            ZipArchive archive = ZipArchive.open(this.file, this.defaultFiles);
+            if (this.preload) {
+                archive.preload();
+            }
+            this.archive = archive;
+
+            this.logger.info(
+                "Loaded %d entries from %s in %dms%s.",
+                archive.count(), this.file, System.currentTimeMillis() - start,
+                this.preload ? String.format(" (preloaded %dKB)", archive.getLength() / 1024) : ""
+            );
+        } catch (IOException e) {
+            // Probably still being written, we'll get another event once it's done.
+            if (current == null) {
+                this.logger.severe("Couldn't open %s:\n%s", this.file, e);
+            } else {
+                this.logger.debug("Couldn't open the new version of %s, keeping the old one:\n%s", this.file, e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,271 @@
+package co.casterlabs.katana.router.http.proxy;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jetbrains.annotations.Nullable;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Stops us from piling requests onto a target that's already struggling.
+ *
+ * While closed, outcomes are counted over a sliding window and once too many of
+ * them fail (or are too slow) the breaker opens. While open, everything fails
+ * fast until the cooldown is over. After that it's half-open: a handful of
+ * trial requests get through, if they all succeed we close again, otherwise
+ * it's back to open.
+ *
+ * The window is a ring of one second buckets made of atomics, so recording an
+ * outcome never takes a lock. Rolling over a bucket is a little racy, which
+ * just means an outcome might occasionally get lost.
+ */
+public class CircuitBreaker {
+    private static final long BUCKET_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int windowSeconds;
+    private final int minimumCalls;
+    private final int failureRatePercent;
+    private final int slowRatePercent;
+    private final long slowNanos;
+    private final long openNanos;
+    private final int trialCalls;
+
+    // Each bucket is 4 longs: {second, calls, failures, slow}.
+    private final AtomicLongArray buckets;
+    private final long base = System.nanoTime();
+
+    // Every state transition swaps in a new generation, so that outcomes of calls
+    // that started in an older one can be told apart and ignored.
+    private final AtomicReference<Generation> generation = new AtomicReference<>(new Generation(State.CLOSED, 0));
+
+    private final @Getter AtomicLong trips = new AtomicLong();
+    private final @Getter AtomicLong rejections = new AtomicLong();
+
+    /**
+     * @param windowSeconds      how far back to look when deciding to open.
+     * @param minimumCalls       how many calls the window needs before we decide
+     *                           anything.
+     * @param failureRatePercent the percentage of failed calls that opens the
+     *                           breaker.
+     * @param slowRatePercent    the percentage of slow calls that opens the
+     *                           breaker, 0 to disable.
+     * @param slowNanos          how long a call has to take to be slow.
+     * @param openNanos          how long to fail fast for before probing.
+     * @param trialCalls         how many trial calls to let through (and need to
+     *                           succeed) while half-open.
+     */
+    public CircuitBreaker(int windowSeconds, int minimumCalls, int failureRatePercent, int slowRatePercent, long slowNanos, long openNanos, int trialCalls) {
+        this.windowSeconds = windowSeconds;
+        this.minimumCalls = minimumCalls;
+        this.failureRatePercent = failureRatePercent;
+        this.slowRatePercent = slowRatePercent;
+        this.slowNanos = slowNanos;
+        this.openNanos = openNanos;
+        this.trialCalls = trialCalls;
+        this.buckets = new AtomicLongArray(windowSeconds * 4);
+    }
+
+    public State getState() {
+        return this.generation.get().state;
+    }
+
+    /**
+     * @return whether or not a request would be let through right now. Unlike
+     *         {@link #tryAcquire()} this doesn't count as one.
+     */
+    public boolean isPermitting() {
+        Generation current = this.generation.get();
+        if (current.state == State.CLOSED) {
+            return true;
+        } else if (current.state == State.OPEN) {
+            return this.isCooledDown(current);
+        } else {
+            return current.trialsStarted.get() < this.trialCalls;
+        }
+    }
+
+    /**
+     * Call this before sending a request. If you get a ticket you must either
+     * {@link #record(Ticket, boolean, long)} the outcome or
+     * {@link #release(Ticket)} it.
+     *
+     * @return the ticket, or null if the request should fail fast.
+     */
+    public @Nullable Ticket tryAcquire() {
+        while (true) {
+            Generation current = this.generation.get();
+
+            if (current.state == State.CLOSED) {
+                return new Ticket(current, false);
+            }
+
+            if (current.state == State.OPEN) {
+                if (!this.isCooledDown(current)) {
+                    this.rejections.incrementAndGet();
+                    return null;
+                }
+
+                this.generation.compareAndSet(current, new Generation(State.HALF_OPEN, current.openedAt));
+                continue;
+            }
+
+            // Half-open, only a few trial requests get through.
+            int started = current.trialsStarted.get();
+            if (started >= this.trialCalls) {
+                this.rejections.incrementAndGet();
+                return null;
+            }
+            if (current.trialsStarted.compareAndSet(started, started + 1)) {
+                return new Ticket(current, true);
+            }
+        }
+    }
+
+    /**
+     * Gives back a ticket that never got an outcome, e.g because the call was
+     * cancelled.
+     */
+    public void release(@NonNull Ticket ticket) {
+        if (ticket.trial && (ticket.generation == this.generation.get())) {
+            ticket.generation.trialsStarted.updateAndGet((started) -> Math.max(0, started - 1));
+        }
+    }
+
+    /**
+     * @return true if this outcome caused the breaker to open.
+     */
+    public boolean record(@NonNull Ticket ticket, boolean failed, long latencyNanos) {
+        Generation current = this.generation.get();
+        if (ticket.generation != current) return false; // Started before the last transition, it says nothing about now.
+
+        boolean slow = (this.slowRatePercent > 0) && (latencyNanos >= this.slowNanos);
+
+        if (current.state == State.HALF_OPEN) {
+            if (failed || slow) {
+                return this.trip(current);
+            }
+
+            if (current.trialsSucceeded.incrementAndGet() >= this.trialCalls) {
+                this.reset(); // Nothing records into the window until we're closed.
+                this.generation.compareAndSet(current, new Generation(State.CLOSED, 0));
+            }
+            return false;
+        }
+
+        long second = ((System.nanoTime() - this.base) / BUCKET_NANOS) + 1;
+        int bucket = (int) (second % this.windowSeconds) * 4;
+
+        long bucketSecond = this.buckets.get(bucket);
+        if ((bucketSecond != second) && this.buckets.compareAndSet(bucket, bucketSecond, second)) {
+            this.buckets.set(bucket + 1, 0);
+            this.buckets.set(bucket + 2, 0);
+            this.buckets.set(bucket + 3, 0);
+        }
+
+        this.buckets.incrementAndGet(bucket + 1);
+        if (failed) this.buckets.incrementAndGet(bucket + 2);
+        if (slow) this.buckets.incrementAndGet(bucket + 3);
+
+        long calls = 0;
+        long failures = 0;
+        long slowCalls = 0;
+        for (int i = 0; i < this.buckets.length(); i += 4) {
+            if (second - this.buckets.get(i) >= this.windowSeconds) continue; // Stale.
+
+            calls += this.buckets.get(i + 1);
+            failures += this.buckets.get(i + 2);
+            slowCalls += this.buckets.get(i + 3);
+        }
+
+        if (calls < this.minimumCalls) return false;
+
+        if ((failures * 100 >= this.failureRatePercent * calls) ||
+            ((this.slowRatePercent > 0) && (slowCalls * 100 >= this.slowRatePercent * calls))) {
+            return this.trip(current);
+        }
+        return false;
+    }
+
+    /**
+     * @return how long until we start probing again, for Retry-After.
+     */
+    public long getRemainingOpenSeconds() {
+        Generation current = this.generation.get();
+        long remaining = current.openedAt + this.openNanos - System.nanoTime();
+        return Math.max(1, (long) Math.ceil(remaining / (double) BUCKET_NANOS));
+    }
+
+    private boolean isCooledDown(Generation generation) {
+        return System.nanoTime() - generation.openedAt >= this.openNanos;
+    }
+
+    private boolean trip(Generation from) {
+        if (this.generation.compareAndSet(from, new Generation(State.OPEN, System.nanoTime()))) {
+            this.trips.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        for (int i = 0; i < this.buckets.length(); i++) {
+            this.buckets.set(i, 0);
+        }
+    }
+
+    private static class Generation {
+        private final State state;
+        private final long openedAt;
+        private final AtomicInteger trialsStarted = new AtomicInteger();
+        private final AtomicInteger trialsSucceeded = new AtomicInteger();
+
+        private Generation(State state, long openedAt) {
+            this.state = state;
+            this.openedAt = openedAt;
+        }
+
+    }
+
+    /**
+     * Ties a call to the generation it started in.
+     */
+    public static class Ticket {
+        private final Generation generation;
+        private final boolean trial;
+
+        private Ticket(Generation generation, boolean trial) {
+            this.generation = generation;
+            this.trial = trial;
+        }
+
+    }
+
+    public static enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Thrown instead of sending a request to a target whose breaker is open.
+     */
+    @Getter
+    public static class OpenException extends IOException {
+        private static final long serialVersionUID = -6310955741254918702L;
+
+        private final long retryAfterSeconds;
+
+        public OpenException(String message, long retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+    }
+
+}
@@ -0,0 +1,157 @@
+package co.casterlabs.katana.router.http.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.NonNull;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import xyz.e3ndr.fastloggingframework.logging.FastLogger;
+
+/**
+ * Periodically probes a set of targets and flips their healthy flag after
+ * enough consecutive passes/failures. All checkers share a single scheduler
+ * thread, the probes themselves run on virtual threads.
+ */
+public class HealthChecker {
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform()
+            .name("Katana Health Check Scheduler")
+            .daemon()
+            .factory()
+    );
+
+    private final FastLogger logger;
+    private final List<Probe> probes = new ArrayList<>();
+    private final int expectedStatus;
+    private final int healthyThreshold;
+    private final int unhealthyThreshold;
+    private final long intervalMillis;
+
+    private ScheduledFuture<?> task;
+
+    public HealthChecker(@NonNull FastLogger logger, @NonNull ProxyTarget[] targets, @NonNull String path, int expectedStatus, int intervalSeconds, int timeoutSeconds, int healthyThreshold, int unhealthyThreshold) {
+        this.logger = logger;
+        this.expectedStatus = expectedStatus;
+        this.healthyThreshold = healthyThreshold;
+        this.unhealthyThreshold = unhealthyThreshold;
+        this.intervalMillis = TimeUnit.SECONDS.toMillis(intervalSeconds);
+
+        for (ProxyTarget target : targets) {
+            HttpUrl url = probeUrl(target, path);
+            if (url == null) {
+                // e.g the url contains `{ip}`, there's nothing for us to probe.
+                logger.debug("Not health checking %s, the url can't be resolved ahead of time.", target);
+                continue;
+            }
+
+            OkHttpClient client = target.getClient()
+                .newBuilder()
+                .callTimeout(timeoutSeconds, TimeUnit.SECONDS)
+                .followRedirects(false)
+                .build();
+
+            this.probes.add(new Probe(target, url, client));
+        }
+    }
+
+    public synchronized void start() {
+        if ((this.task != null) || this.probes.isEmpty()) return;
+
+        // Jitter the first run so that a reload doesn't probe everything at once.
+        long initialDelay = ThreadLocalRandom.current().nextLong(this.intervalMillis);
+        this.task = SCHEDULER.scheduleWithFixedDelay(this::probeAll, initialDelay, this.intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (this.task == null) return;
+
+        this.task.cancel(false);
+        this.task = null;
+    }
+
+    private void probeAll() {
+        for (Probe probe : this.probes) {
+            // Don't pile up probes against a target that's hanging.
+            if (probe.inFlight.compareAndSet(false, true)) {
+                Thread.ofVirtual().name("Katana Health Check - " + probe.target).start(probe);
+            }
+        }
+    }
+
+    private static HttpUrl probeUrl(ProxyTarget target, String path) {
+        if (target.getHost() == null) return null;
+
+        String url = target.getUrl();
+        if (url.startsWith("ws://") || url.startsWith("wss://")) {
+            url = "http" + url.substring("ws".length());
+        }
+
+        HttpUrl parsed = HttpUrl.parse(url);
+        if (parsed == null) return null;
+
+        return parsed.resolve(path);
+    }
+
+    private class Probe implements Runnable {
+        private final ProxyTarget target;
+        private final HttpUrl url;
+        private final OkHttpClient client;
+
+        private final AtomicBoolean inFlight = new AtomicBoolean(false);
+        private int consecutivePasses = 0;
+        private int consecutiveFailures = 0;
+
+        private Probe(ProxyTarget target, HttpUrl url, OkHttpClient client) {
+            this.target = target;
+            this.url = url;
+            this.client = client;
+        }
+
+        @Override
+        public void run() {
+            try {
+                boolean passed;
+                try (Response response = this.client.newCall(new Request.Builder().url(this.url).build()).execute()) {
+                    passed = response.code() == expectedStatus;
+                    if (!passed) {
+                        logger.debug("Health check for %s failed, expected %d but got %d.", this.target, expectedStatus, response.code());
+                    }
+                } catch (Throwable t) {
+                    passed = false;
+                    logger.debug("Health check for %s failed:\n%s", this.target, t);
+                }
+
+                if (passed) {
+                    this.consecutiveFailures = 0;
+                    this.consecutivePasses++;
+
+                    if (!this.target.isHealthy() && (this.consecutivePasses >= healthyThreshold)) {
+                        this.target.setHealthy(true);
+                        logger.info("Upstream %s is healthy again.", this.target);
+                    }
+                } else {
+                    this.consecutivePasses = 0;
+                    this.consecutiveFailures++;
+
+                    if (this.target.isHealthy() && (this.consecutiveFailures >= unhealthyThreshold)) {
+                        this.target.setHealthy(false);
+                        logger.warn("Upstream %s is unhealthy, it will be skipped until it recovers.", this.target);
+                    }
+                }
+            } finally {
+                this.inFlight.set(false);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,65 @@
+package co.casterlabs.katana.router.http.proxy;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the most recent latencies around so we can ask for a percentile, e.g to
+ * decide when a request is slow enough to be worth hedging. Percentiles are
+ * recomputed at most once a second, sorting on every request would be silly.
+ */
+public class LatencyTracker {
+    private static final int SAMPLES = 1024;
+    private static final int MIN_SAMPLES = 32;
+    private static final long RECOMPUTE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+    private final AtomicLong count = new AtomicLong(); // A long so that it never wraps.
+
+    private final double percentile;
+    private volatile long cached = -1;
+    private volatile long computedAt = System.nanoTime() - RECOMPUTE_INTERVAL;
+
+    /**
+     * @param percentile e.g 95 for p95.
+     */
+    public LatencyTracker(double percentile) {
+        this.percentile = percentile;
+    }
+
+    public void record(long latencyNanos) {
+        int index = Math.floorMod(this.count.getAndIncrement(), SAMPLES);
+        this.samples.set(index, latencyNanos);
+    }
+
+    /**
+     * @return the latency at our percentile in nanos, or -1 if we haven't seen
+     *         enough requests yet.
+     */
+    public long get() {
+        long now = System.nanoTime();
+        if (now - this.computedAt < RECOMPUTE_INTERVAL) {
+            return this.cached;
+        }
+        this.computedAt = now;
+
+        int available = (int) Math.min(this.count.get(), SAMPLES);
+        if (available < MIN_SAMPLES) {
+            this.cached = -1;
+            return -1;
+        }
+
+        long[] sorted = new long[available];
+        for (int i = 0; i < available; i++) {
+            sorted[i] = this.samples.get(i);
+        }
+        Arrays.sort(sorted);
+
+        int index = (int) Math.min(available - 1, Math.ceil(this.percentile / 100 * available) - 1);
+        this.cached = sorted[Math.max(0, index)];
+        return this.cached;
+    }
+
+}
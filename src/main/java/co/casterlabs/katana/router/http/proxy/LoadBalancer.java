@@ -0,0 +1,139 @@
+package co.casterlabs.katana.router.http.proxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+public class LoadBalancer {
+    private final @Getter ProxyTarget[] targets;
+    private final @Getter Strategy strategy;
+
+    private final AtomicInteger counter = new AtomicInteger();
+    private final int[] weightedSchedule;
+
+    public LoadBalancer(@NonNull ProxyTarget[] targets, @NonNull Strategy strategy) {
+        assert targets.length > 0 : "There must be at least one target.";
+
+        this.targets = targets;
+        this.strategy = strategy;
+        this.weightedSchedule = smoothWeightedSchedule(targets);
+    }
+
+    public ProxyTarget select() {
+        if (this.targets.length == 1) {
+            return this.targets[0];
+        }
+
+        int selected = this.selectIndex();
+        if (this.targets[selected].isAvailable()) {
+            return this.targets[selected];
+        }
+
+        // Skip over unhealthy/ejected targets. If EVERYTHING is unavailable then we
+        // might as well try, the checks could be wrong.
+        for (int i = 1; i < this.targets.length; i++) {
+            ProxyTarget next = this.targets[(selected + i) % this.targets.length];
+            if (next.isAvailable()) {
+                return next;
+            }
+        }
+        return this.targets[selected];
+    }
+
+    /**
+     * Like {@link #select()}, but tries to pick something other than the given
+     * target, e.g for a retry.
+     *
+     * @return the given target if there's nothing else available.
+     */
+    public ProxyTarget selectOther(@NonNull ProxyTarget avoid) {
+        ProxyTarget selected = this.select();
+        if (selected != avoid) {
+            return selected;
+        }
+
+        int start = Arrays.asList(this.targets).indexOf(avoid);
+        for (int i = 1; i < this.targets.length; i++) {
+            ProxyTarget next = this.targets[Math.floorMod(start + i, this.targets.length)];
+            if (next.isAvailable()) {
+                return next;
+            }
+        }
+        return avoid;
+    }
+
+    private int selectIndex() {
+        switch (this.strategy) {
+            case ROUND_ROBIN:
+                return Math.floorMod(this.counter.getAndIncrement(), this.targets.length);
+
+            case WEIGHTED:
+                return this.weightedSchedule[Math.floorMod(this.counter.getAndIncrement(), this.weightedSchedule.length)];
+
+            case LEAST_REQUESTS: {
+                // Power of two choices, avoids the herding you'd get from always picking the
+                // global minimum.
+                int a = this.random();
+                int b = this.random();
+                if (!this.targets[a].isAvailable()) return b;
+                if (!this.targets[b].isAvailable()) return a;
+                return this.targets[a].getOutstanding().get() <= this.targets[b].getOutstanding().get() ? a : b;
+            }
+
+            case PEAK_EWMA: {
+                int a = this.random();
+                int b = this.random();
+                if (!this.targets[a].isAvailable()) return b;
+                if (!this.targets[b].isAvailable()) return a;
+                return this.targets[a].getPeakEwmaCost() <= this.targets[b].getPeakEwmaCost() ? a : b;
+            }
+
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private int random() {
+        return ThreadLocalRandom.current().nextInt(this.targets.length);
+    }
+
+    /**
+     * Precomputes nginx's smooth weighted round robin, so that selecting is just
+     * an atomic increment. e.g {a:5, b:1, c:1} becomes [a, a, b, a, c, a, a].
+     */
+    private static int[] smoothWeightedSchedule(ProxyTarget[] targets) {
+        int total = 0;
+        for (ProxyTarget target : targets) {
+            total += target.getWeight();
+        }
+
+        int[] current = new int[targets.length];
+        List<Integer> schedule = new ArrayList<>(total);
+
+        for (int i = 0; i < total; i++) {
+            int best = 0;
+            for (int t = 0; t < targets.length; t++) {
+                current[t] += targets[t].getWeight();
+                if (current[t] > current[best]) best = t;
+            }
+
+            current[best] -= total;
+            schedule.add(best);
+        }
+
+        return schedule.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static enum Strategy {
+        ROUND_ROBIN,
+        WEIGHTED,
+        LEAST_REQUESTS,
+        PEAK_EWMA,
+    }
+
+}
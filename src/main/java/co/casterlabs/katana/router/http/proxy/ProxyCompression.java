@@ -0,0 +1,24 @@
+package co.casterlabs.katana.router.http.proxy;
+
+public enum ProxyCompression {
+    /**
+     * The client's Accept-Encoding is dropped and OkHttp transparently decompresses
+     * whatever comes back. The body is only compressed if the router's (or
+     * servlet's) compression is enabled.
+     */
+    IDENTITY,
+
+    /**
+     * The client's Accept-Encoding is forwarded and compressed bodies are streamed
+     * through untouched, Content-Encoding and all.
+     */
+    PASSTHROUGH,
+
+    /**
+     * Same as {@link #PASSTHROUGH}, but uncompressed bodies always get compressed
+     * by us (using the compression settings, even if they aren't enabled).
+     */
+    COMPRESS,
+    ;
+
+}
@@ -0,0 +1,156 @@
+package co.casterlabs.katana.router.http.proxy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.router.http.proxy.UpstreamPools.UpstreamPool;
+import lombok.Getter;
+import lombok.NonNull;
+import okhttp3.OkHttpClient;
+
+/**
+ * One of the backends behind a proxy servlet, along with the (lock-free)
+ * counters that the load balancer uses to pick between them.
+ */
+@Getter
+public class ProxyTarget {
+    private static final double EWMA_DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final String url;
+    private final int weight;
+
+    /**
+     * Null if the url can't be parsed ahead of time (e.g it contains `{ip}`).
+     */
+    private final @Nullable String host;
+
+    private final OkHttpClient client;
+    private final @Nullable CircuitBreaker circuitBreaker;
+    private final Map<UpstreamPool, OkHttpClient> pooledClients = new ConcurrentHashMap<>();
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long ejectedUntil = System.nanoTime();
+
+    /**
+     * Driven by the active health checks, targets start out as healthy.
+     */
+    private volatile boolean healthy = true;
+    private final AtomicLong ewmaBits = new AtomicLong(Double.doubleToRawLongBits(0));
+    private final AtomicLong lastLatencyUpdate = new AtomicLong(System.nanoTime());
+
+    public ProxyTarget(@NonNull String url, int weight, @Nullable String host, @NonNull OkHttpClient client, @Nullable CircuitBreaker circuitBreaker) {
+        this.url = url;
+        this.weight = weight;
+        this.host = host;
+        this.client = client;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public OkHttpClient getClient(@NonNull UpstreamPool pool) {
+        return this.pooledClients.computeIfAbsent(pool, (p) -> p.newClient(this.client));
+    }
+
+    /**
+     * Call this when a request starts, make sure to call {@link #end()} once it's
+     * completely finished.
+     */
+    public void begin() {
+        this.outstanding.incrementAndGet();
+    }
+
+    public void end() {
+        this.outstanding.decrementAndGet();
+    }
+
+    /**
+     * @return whether or not the load balancer should send requests here.
+     */
+    public boolean isAvailable() {
+        return this.healthy &&
+            (System.nanoTime() - this.ejectedUntil >= 0) &&
+            ((this.circuitBreaker == null) || this.circuitBreaker.isPermitting());
+    }
+
+    public boolean isEjected() {
+        return System.nanoTime() - this.ejectedUntil < 0;
+    }
+
+    public void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    public void reportSuccess() {
+        if (this.consecutiveFailures.get() != 0) {
+            this.consecutiveFailures.set(0);
+        }
+    }
+
+    /**
+     * Passive outlier detection, call this on a 5xx or connection failure.
+     * 
+     * @param  threshold     how many consecutive failures before ejection, 0 to
+     *                       disable.
+     * @param  ejectionNanos how long to eject the target for.
+     * 
+     * @return               true if this failure caused the target to be ejected.
+     */
+    public boolean reportFailure(int threshold, long ejectionNanos) {
+        if (threshold <= 0) return false;
+
+        if (this.consecutiveFailures.incrementAndGet() == threshold) {
+            this.consecutiveFailures.set(0);
+            this.ejectedUntil = System.nanoTime() + ejectionNanos;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Peak-EWMA: latency spikes are adopted immediately, improvements decay in
+     * over time.
+     */
+    public void recordLatency(long latencyNanos) {
+        long now = System.nanoTime();
+        long elapsed = Math.max(0, now - this.lastLatencyUpdate.getAndSet(now));
+        double weight = Math.exp(-elapsed / EWMA_DECAY_NANOS);
+
+        while (true) {
+            long bits = this.ewmaBits.get();
+            double previous = Double.longBitsToDouble(bits);
+
+            double next;
+            if (latencyNanos > previous) {
+                next = latencyNanos;
+            } else {
+                next = (previous * weight) + (latencyNanos * (1 - weight));
+            }
+
+            if (this.ewmaBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    public double getLatencyEwma() {
+        return Double.longBitsToDouble(this.ewmaBits.get());
+    }
+
+    /**
+     * The expected cost of sending one more request to this target.
+     */
+    public double getPeakEwmaCost() {
+        return this.getLatencyEwma() * (this.outstanding.get() + 1);
+    }
+
+    @Override
+    public String toString() {
+        return this.url;
+    }
+
+}
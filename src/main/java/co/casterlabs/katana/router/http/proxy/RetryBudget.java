@@ -0,0 +1,63 @@
+package co.casterlabs.katana.router.http.proxy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that keeps retries (and hedges) to a fraction of regular
+ * traffic, that way a struggling upstream doesn't get hit with a multiple of
+ * its normal load. Every retryable request deposits a fraction of a token and
+ * every retry withdraws a whole one, with a small per-second allowance so that
+ * quiet servlets can still retry.
+ */
+public class RetryBudget {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double ratio;
+    private final double minPerSecond;
+    private final double capacity;
+
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param ratio        how many retries are allowed per request, e.g 0.2.
+     * @param minPerSecond how many retries are allowed per second regardless.
+     */
+    public RetryBudget(double ratio, double minPerSecond) {
+        this.ratio = ratio;
+        this.minPerSecond = minPerSecond;
+        // Enough to absorb a blip, not enough to save up for an outage.
+        this.capacity = Math.max(10, minPerSecond * 10);
+        this.tokens = this.capacity;
+    }
+
+    /**
+     * Call this once for every (original) request that could be retried or
+     * hedged.
+     */
+    public synchronized void deposit() {
+        this.refill();
+        this.tokens = Math.min(this.capacity, this.tokens + this.ratio);
+    }
+
+    /**
+     * @return true if there's room for a retry, in which case it's been accounted
+     *         for.
+     */
+    public synchronized boolean tryWithdraw() {
+        this.refill();
+        if (this.tokens < 1) return false;
+
+        this.tokens--;
+        return true;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        long elapsed = now - this.lastRefill;
+        this.lastRefill = now;
+
+        this.tokens = Math.min(this.capacity, this.tokens + (this.minPerSecond * elapsed / SECOND));
+    }
+
+}
@@ -0,0 +1,184 @@
+package co.casterlabs.katana.router.http.proxy;
+
+import java.io.Closeable;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+import org.jetbrains.annotations.Nullable;
+
+import co.casterlabs.katana.router.http.HttpRouterConfiguration.HttpUpstreamConfiguration;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+
+/**
+ * Router-level registry of upstream connection pools, keyed by the target's
+ * origin. Every proxy servlet pointing at the same backend shares the same
+ * warm connections, and since the router outlives config reloads so do the
+ * pools.
+ */
+public class UpstreamPools {
+    // OkHttp only reuses a pooled connection if the client's DNS, SSL and proxy
+    // settings are the *same instances*, so all servlets derive from these.
+    private static final OkHttpClient BASE_CLIENT = new OkHttpClient();
+    private static final Map<String, Dns> FORWARDED_DNS = new ConcurrentHashMap<>();
+    private static volatile @Nullable SSLSocketFactory unsafeSocketFactory;
+    private static volatile @Nullable OkHttpClient unsafeBaseClient;
+
+    private final Map<String, UpstreamPool> pools = new ConcurrentHashMap<>();
+    private volatile HttpUpstreamConfiguration config = new HttpUpstreamConfiguration();
+
+    public void configure(@NonNull HttpUpstreamConfiguration config) {
+        HttpUpstreamConfiguration old = this.config;
+        this.config = config;
+
+        if (old.equals(config)) return;
+
+        // ConnectionPools can't be resized, so we have to start fresh. In-use
+        // connections will be closed by the old pool once they go idle.
+        for (UpstreamPool pool : this.pools.values()) {
+            pool.connectionPool.evictAll();
+        }
+        this.pools.clear();
+    }
+
+    public UpstreamPool get(@NonNull HttpUrl url) {
+        String origin = url.scheme() + "://" + url.host() + ':' + url.port();
+        return this.pools.computeIfAbsent(origin, (o) -> new UpstreamPool(o, this.config));
+    }
+
+    public int size() {
+        return this.pools.size();
+    }
+
+    /**
+     * @param trustAll whether or not to skip certificate (and hostname)
+     *                 verification.
+     */
+    public static OkHttpClient baseClient(boolean trustAll) {
+        if (!trustAll) {
+            return BASE_CLIENT;
+        }
+
+        if (unsafeBaseClient == null) {
+            synchronized (UpstreamPools.class) {
+                if (unsafeBaseClient == null) {
+                    unsafeBaseClient = BASE_CLIENT.newBuilder()
+                        .sslSocketFactory(unsafeSocketFactory(), UnsafeTrustManager.INSTANCE)
+                        .hostnameVerifier(UnsafeTrustManager.INSTANCE)
+                        .build();
+                }
+            }
+        }
+        return unsafeBaseClient;
+    }
+
+    @SneakyThrows
+    public static synchronized SSLSocketFactory unsafeSocketFactory() {
+        if (unsafeSocketFactory == null) {
+            SSLContext sslContext = SSLContext.getInstance("SSL");
+            sslContext.init(
+                null,
+                new TrustManager[] {
+                        UnsafeTrustManager.INSTANCE
+                },
+                new SecureRandom()
+            );
+            unsafeSocketFactory = sslContext.getSocketFactory();
+        }
+        return unsafeSocketFactory;
+    }
+
+    /**
+     * @return a resolver that answers every lookup with the given host's
+     *         addresses, shared so that connections can be too.
+     */
+    public static Dns forwardedDns(@NonNull String host) {
+        return FORWARDED_DNS.computeIfAbsent(host, (h) -> (hostname) -> Dns.SYSTEM.lookup(h));
+    }
+
+    public static class UpstreamPool {
+        private final @Getter String origin;
+        private final ConnectionPool connectionPool;
+        private final @Nullable Semaphore concurrency;
+        private final long acquireTimeout;
+
+        private UpstreamPool(String origin, HttpUpstreamConfiguration config) {
+            this.origin = origin;
+            this.connectionPool = new ConnectionPool(config.maxIdleConnections, config.keepAliveSeconds, TimeUnit.SECONDS);
+            this.concurrency = config.maxRequestsPerHost > 0 ? new Semaphore(config.maxRequestsPerHost) : null;
+            this.acquireTimeout = TimeUnit.SECONDS.toMillis(config.acquireTimeoutSeconds);
+        }
+
+        /**
+         * Derives a client from the servlet's client that uses this pool's
+         * connections. Note that OkHttp only shares a connection between clients if
+         * their DNS, SSL and proxy settings are the same, see
+         * {@link UpstreamPools#baseClient(boolean)}.
+         */
+        public OkHttpClient newClient(@NonNull OkHttpClient base) {
+            return base.newBuilder()
+                .connectionPool(this.connectionPool)
+                .build();
+        }
+
+        /**
+         * @return a permit that must be closed once the request is done, or null if
+         *         the upstream is at capacity.
+         */
+        public @Nullable Permit acquire() throws InterruptedException {
+            if (this.concurrency == null) {
+                return Permit.NONE;
+            }
+
+            if (this.concurrency.tryAcquire(this.acquireTimeout, TimeUnit.MILLISECONDS)) {
+                return new Permit(this.concurrency);
+            } else {
+                return null;
+            }
+        }
+
+        public int getIdleConnections() {
+            return this.connectionPool.idleConnectionCount();
+        }
+
+        public int getConnections() {
+            return this.connectionPool.connectionCount();
+        }
+
+    }
+
+    public static class Permit implements Closeable {
+        private static final Permit NONE = new Permit(null);
+
+        private final @Nullable Semaphore semaphore;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Permit(@Nullable Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public void close() {
+            if (this.semaphore == null) return;
+
+            if (this.released.compareAndSet(false, true)) {
+                this.semaphore.release();
+            }
+        }
+
+    }
+
+}
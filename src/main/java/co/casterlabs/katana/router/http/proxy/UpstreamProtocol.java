@@ -0,0 +1,32 @@
+package co.casterlabs.katana.router.http.proxy;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import okhttp3.Protocol;
+
+@Getter
+@AllArgsConstructor
+public enum UpstreamProtocol {
+    /**
+     * Always HTTP/1.1, one request per connection at a time.
+     */
+    HTTP_1_1(List.of(Protocol.HTTP_1_1)),
+
+    /**
+     * h2 over TLS, negotiated with ALPN. Cleartext targets (and servers that don't
+     * speak h2) get HTTP/1.1.
+     */
+    HTTP_2(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1)),
+
+    /**
+     * Cleartext h2 with prior knowledge, the target MUST support it since there's
+     * no negotiation or fallback.
+     */
+    H2C(List.of(Protocol.H2_PRIOR_KNOWLEDGE)),
+    ;
+
+    private final List<Protocol> protocols;
+
+}
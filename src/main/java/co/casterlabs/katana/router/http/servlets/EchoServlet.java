@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Map.Entry;
 
 import co.casterlabs.katana.router.http.HttpRouter;
+import co.casterlabs.katana.router.http.RoutePattern;
 import co.casterlabs.rakurai.json.Rson;
 import co.casterlabs.rakurai.json.annotating.JsonClass;
 import co.casterlabs.rakurai.json.element.JsonObject;
@@ -38,8 +39,8 @@ public class EchoServlet extends HttpServlet {
     }
 
     @Override
-    public boolean matchHttp(HttpSession session, HttpRouter router) {
-        return true;
+    public RoutePattern getHttpRoute() {
+        return RoutePattern.ANY;
     }
 
     @SneakyThrows
@@ -72,8 +73,8 @@ public class EchoServlet extends HttpServlet {
     }
 
     @Override
-    public boolean matchWebsocket(WebsocketSession session, HttpRouter router) {
-        return true;
+    public RoutePattern getWebsocketRoute() {
+        return RoutePattern.ANY;
     }
 
     @Override
@@ -1,11 +1,21 @@
 package co.casterlabs.katana.router.http.servlets;
 
 import java.io.File;
+import java.io.IOException;
+
+import org.jetbrains.annotations.Nullable;
 
 import co.casterlabs.katana.router.http.HttpRouter;
 import co.casterlabs.katana.router.http.HttpUtil;
+import co.casterlabs.katana.router.http.RoutePattern;
+import co.casterlabs.katana.router.http.compression.ResponseCompressor;
+import co.casterlabs.katana.router.http.files.ETagMode;
+import co.casterlabs.katana.router.http.files.FileCache;
+import co.casterlabs.katana.router.http.files.StaticFile;
+import co.casterlabs.katana.router.http.files.StaticHeaders;
 import co.casterlabs.rakurai.json.Rson;
 import co.casterlabs.rakurai.json.annotating.JsonClass;
+import co.casterlabs.rakurai.json.annotating.JsonField;
 import co.casterlabs.rakurai.json.element.JsonObject;
 import co.casterlabs.rakurai.json.serialization.JsonParseException;
 import co.casterlabs.rakurai.json.validation.JsonValidate;
@@ -17,6 +27,9 @@ import lombok.Getter;
 
 public class FileServlet extends HttpServlet {
     private @Getter HostConfiguration config;
+    private @Getter RoutePattern httpRoute;
+    private @Getter @Nullable FileCache fileCache;
+    private @Getter StaticHeaders staticHeaders;
 
     public FileServlet() {
         super("FILE");
@@ -25,6 +38,34 @@ public class FileServlet extends HttpServlet {
     @Override
     public void init(JsonObject config) throws JsonValidationException, JsonParseException {
         this.config = Rson.DEFAULT.fromJson(config, HostConfiguration.class);
+        this.httpRoute = RoutePattern.regex(this.config.path);
+        this.staticHeaders = new StaticHeaders(this.config.etag, this.config.cacheControl == null ? new String[0] : new String[] {
+                "** " + this.config.cacheControl
+        });
+
+        if (this.config.fileCacheMaxKilobytes > 0) {
+            File file = new File(this.config.file).getAbsoluteFile();
+            this.fileCache = new FileCache(
+                file.getParentFile(),
+                false,
+                this.config.fileCacheMaxKilobytes * 1024L * 2, // Room to swap in a new version.
+                this.config.fileCacheMaxKilobytes * 1024L
+            );
+        }
+    }
+
+    @Override
+    public void onLoad(HttpRouter router) {
+        if (this.fileCache != null) {
+            this.fileCache.start(router.getLogger());
+        }
+    }
+
+    @Override
+    public void onUnload() {
+        if (this.fileCache != null) {
+            this.fileCache.stop();
+        }
     }
 
     @JsonClass(exposeAll = true)
@@ -35,31 +76,43 @@ public class FileServlet extends HttpServlet {
         public String file = "file.html";
         public String path = "/file";
 
+        @JsonField("file_cache_max_kilobytes")
+        public int fileCacheMaxKilobytes = 0; // 0 = Disabled
+
+        public ETagMode etag = ETagMode.WEAK;
+
+        @JsonField("cache_control")
+        public @Nullable String cacheControl = null;
+
         @JsonValidate
         private void $validate() {
             assert this.file != null : "The `file` option must be set.";
             assert this.path != null : "The `path` option must be set.";
             assert !this.file.isEmpty() : "The `file` option must not be empty.";
             assert !this.path.isEmpty() : "The `path` option must not be empty.";
+            assert this.fileCacheMaxKilobytes >= 0 : "The `file_cache_max_kilobytes` option must not be negative.";
+            assert this.etag != null : "The `etag` option must be one of NONE, WEAK or STRONG.";
+            assert (this.cacheControl == null) || !this.cacheControl.isBlank() : "The `cache_control` option must not be blank.";
         }
 
     }
 
-    @Override
-    public boolean matchHttp(HttpSession session, HttpRouter router) {
-        return session.uri().path.matches(this.config.path);
-    }
-
     @Override
     public HttpResponse serveHttp(HttpSession session, HttpRouter router) {
         try {
+            StaticFile cached = (this.fileCache == null) ? null : this.fileCache.get(this.config.file);
+            if (cached != null) {
+                return this.respond(session, router, cached);
+            }
+
             File file = new File(this.config.file);
 
             if (file.exists() && file.isFile()) {
 //                if (this.config.useMiki && FileUtil.isMiki(file)) {
 //                    return FileUtil.serveMiki(session, file, StandardHttpStatus.OK);
 //                } else {
-                return HttpResponse.newRangedFileResponse(session, StandardHttpStatus.OK, file);
+                StaticFile staticFile = (this.fileCache == null) ? StaticFile.of(file) : this.fileCache.put(this.config.file, file);
+                return this.respond(session, router, staticFile);
 //                }
             }
 
@@ -70,4 +123,15 @@ public class FileServlet extends HttpServlet {
         }
     }
 
+    private HttpResponse respond(HttpSession session, HttpRouter router, StaticFile file) throws IOException {
+        String etag = this.staticHeaders.etag(file);
+        String cacheControl = this.staticHeaders.cacheControl(session.uri().path);
+
+        HttpResponse notModified = this.staticHeaders.checkNotModified(session, file.getLastModified(), etag, cacheControl);
+        if (notModified != null) return notModified;
+
+        HttpResponse response = ResponseCompressor.respondWithFile(session, this.getEffectiveCompression(router), StandardHttpStatus.OK, file, etag);
+        return this.staticHeaders.apply(response, file.getLastModified(), null, cacheControl);
+    }
+
 }
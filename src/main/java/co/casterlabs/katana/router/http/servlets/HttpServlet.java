@@ -5,7 +5,11 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import org.jetbrains.annotations.Nullable;
+
 import co.casterlabs.katana.router.http.HttpRouter;
+import co.casterlabs.katana.router.http.HttpRouterConfiguration.HttpCompressionConfiguration;
+import co.casterlabs.katana.router.http.RoutePattern;
 import co.casterlabs.rakurai.json.element.JsonObject;
 import co.casterlabs.rakurai.json.serialization.JsonParseException;
 import co.casterlabs.rakurai.json.validation.JsonValidationException;
@@ -31,6 +35,7 @@ public abstract class HttpServlet {
     private Set<String> corsAllowedHosts = new HashSet<>();
     private Set<String> hostnames = new HashSet<>();
     private @Setter int priority = 1;
+    private @Setter @Nullable HttpCompressionConfiguration compression; // null = Router's default
     private String type;
 
     public HttpServlet(@NonNull String type) {
@@ -39,11 +44,38 @@ public abstract class HttpServlet {
 
     public abstract Object getConfig();
 
+    public HttpCompressionConfiguration getEffectiveCompression(HttpRouter router) {
+        return this.compression == null ? router.getConfig().getCompression() : this.compression;
+    }
+
     public abstract void init(JsonObject config) throws JsonValidationException, JsonParseException;
 
+    // init() also gets called for throwaway instances (e.g the UI's defaults), so
+    // any background work belongs in these instead. They're called by the router
+    // as the servlet is put into and taken out of service, possibly more than once.
+
+    /* Override */
+    public void onLoad(HttpRouter router) {}
+
+    /* Override */
+    public void onUnload() {}
+
+    // The router indexes these routes, so they must not change after init(). A
+    // null route means that the servlet doesn't serve that protocol at all.
+
     /* Override */
+    public @Nullable RoutePattern getHttpRoute() {
+        return null;
+    }
+
+    /* Override */
+    public @Nullable RoutePattern getWebsocketRoute() {
+        return null;
+    }
+
     public boolean matchHttp(HttpSession session, HttpRouter router) {
-        return false;
+        RoutePattern route = this.getHttpRoute();
+        return (route != null) && route.matches(session.uri().path);
     }
 
     /* Override */
@@ -51,9 +83,9 @@ public abstract class HttpServlet {
         return null;
     }
 
-    /* Override */
     public boolean matchWebsocket(WebsocketSession session, HttpRouter router) {
-        return false;
+        RoutePattern route = this.getWebsocketRoute();
+        return (route != null) && route.matches(session.uri().path);
     }
 
     /* Override */
@@ -1,38 +1,62 @@
 package co.casterlabs.katana.router.http.servlets;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.Socket;
 import java.net.URI;
-import java.security.SecureRandom;
-import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509ExtendedTrustManager;
 
 import org.jetbrains.annotations.Nullable;
 
 import co.casterlabs.commons.async.promise.Promise;
 import co.casterlabs.commons.async.promise.PromiseResolver;
-import co.casterlabs.commons.io.streams.StreamUtil;
 import co.casterlabs.commons.websocket.WebSocketClient;
 import co.casterlabs.commons.websocket.WebSocketListener;
 import co.casterlabs.katana.router.http.HttpRouter;
+import co.casterlabs.katana.router.http.HttpRouterConfiguration.HttpCompressionConfiguration;
 import co.casterlabs.katana.router.http.HttpUtil;
+import co.casterlabs.katana.router.http.RoutePattern;
+import co.casterlabs.katana.router.http.cache.CacheControl;
+import co.casterlabs.katana.router.http.cache.CachedResponse;
+import co.casterlabs.katana.router.http.cache.DiskCache;
+import co.casterlabs.katana.router.http.cache.HttpCache;
+import co.casterlabs.katana.router.http.cache.RequestCoalescer;
+import co.casterlabs.katana.router.http.compression.ResponseCompressor;
+import co.casterlabs.katana.router.http.compression.ResponseCompressor.Encoding;
+import co.casterlabs.katana.router.http.proxy.CircuitBreaker;
+import co.casterlabs.katana.router.http.proxy.HealthChecker;
+import co.casterlabs.katana.router.http.proxy.LatencyTracker;
+import co.casterlabs.katana.router.http.proxy.LoadBalancer;
+import co.casterlabs.katana.router.http.proxy.ProxyCompression;
+import co.casterlabs.katana.router.http.proxy.ProxyTarget;
+import co.casterlabs.katana.router.http.proxy.RetryBudget;
+import co.casterlabs.katana.router.http.proxy.UpstreamPools;
+import co.casterlabs.katana.router.http.proxy.UpstreamProtocol;
+import co.casterlabs.katana.router.http.proxy.UpstreamPools.Permit;
+import co.casterlabs.katana.router.http.proxy.UpstreamPools.UpstreamPool;
 import co.casterlabs.rakurai.json.Rson;
 import co.casterlabs.rakurai.json.annotating.JsonClass;
+import co.casterlabs.rakurai.json.annotating.JsonDeserializationMethod;
+import co.casterlabs.rakurai.json.annotating.JsonExclude;
 import co.casterlabs.rakurai.json.annotating.JsonField;
+import co.casterlabs.rakurai.json.annotating.JsonSerializationMethod;
+import co.casterlabs.rakurai.json.element.JsonArray;
+import co.casterlabs.rakurai.json.element.JsonElement;
 import co.casterlabs.rakurai.json.element.JsonObject;
+import co.casterlabs.rakurai.json.element.JsonString;
 import co.casterlabs.rakurai.json.serialization.JsonParseException;
 import co.casterlabs.rakurai.json.validation.JsonValidate;
 import co.casterlabs.rakurai.json.validation.JsonValidationException;
@@ -49,8 +73,11 @@ import co.casterlabs.rhs.protocol.websocket.WebsocketListener;
 import co.casterlabs.rhs.protocol.websocket.WebsocketResponse;
 import co.casterlabs.rhs.protocol.websocket.WebsocketSession;
 import kotlin.Pair;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.SneakyThrows;
+import okhttp3.Call;
 import okhttp3.Dns;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
@@ -59,7 +86,9 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.internal.http.HttpMethod;
+import okio.Buffer;
 import okio.BufferedSink;
+import okio.BufferedSource;
 import okio.Okio;
 import xyz.e3ndr.fastloggingframework.logging.FastLogger;
 
@@ -89,12 +118,30 @@ public class ProxyServlet extends HttpServlet {
         "x-katana-ip"
     );
 
+    private static final long DRAIN_SIZE = 64 * 1024;
+
+    // Requests that can be sent more than once (RFC 9110 section 9.2.2), and those that can be sent at the same time.
+    private static final List<String> IDEMPOTENT_METHODS = Arrays.asList("GET", "HEAD", "OPTIONS", "TRACE", "PUT", "DELETE");
+    private static final List<String> SAFE_METHODS = Arrays.asList("GET", "HEAD", "OPTIONS");
+
     private @Getter HostConfiguration config;
+    private @Getter RoutePattern httpRoute;
+    private @Getter RoutePattern websocketRoute;
 
-    private OkHttpClient client;
-    private @Nullable String proxyUrlHost;
+    private @Getter LoadBalancer loadBalancer;
+    private @Nullable HealthChecker healthChecker;
+    private @Getter @Nullable HttpCache cache;
+    private @Getter @Nullable RequestCoalescer coalescer;
     private SSLSocketFactory sslSocketFactory;
 
+    private RetryBudget retryBudget;
+    private @Nullable LatencyTracker latencies; // Only tracked when hedging.
+
+    private final @Getter AtomicLong retries = new AtomicLong();
+    private final @Getter AtomicLong retriesDenied = new AtomicLong();
+    private final @Getter AtomicLong hedges = new AtomicLong();
+    private final @Getter AtomicLong hedgeWins = new AtomicLong();
+
     public ProxyServlet() {
         super("PROXY");
     }
@@ -104,43 +151,159 @@ public class ProxyServlet extends HttpServlet {
     public void init(JsonObject config) throws JsonValidationException, JsonParseException {
         this.config = Rson.DEFAULT.fromJson(config, HostConfiguration.class);
 
-        OkHttpClient.Builder okhttpBuilder = new OkHttpClient.Builder();
+        // A NULL or blank path is wildcard for http, websockets only treat NULL as
+        // wildcard.
+        if (this.config.allowHttp) {
+            boolean isWildcard = (this.config.proxyPath == null) || this.config.proxyPath.isEmpty();
+            this.httpRoute = isWildcard ? RoutePattern.ANY : RoutePattern.regex(this.config.proxyPath);
+        }
+        if (this.config.allowWebsockets) {
+            this.websocketRoute = (this.config.proxyPath == null) ? RoutePattern.ANY : RoutePattern.regex(this.config.proxyPath);
+        }
+
+        // Derived from the shared base client so that our connections can be reused
+        // by other servlets (and across reloads).
+        OkHttpClient.Builder okhttpBuilder = UpstreamPools.baseClient(this.config.ignoreBadSsl).newBuilder();
 
         if (this.config.ignoreBadSsl) {
-            SSLContext sslContext = SSLContext.getInstance("SSL");
-            sslContext.init(
-                null,
-                new TrustManager[] {
-                        UnsafeTrustManager.INSTANCE
-                },
-                new SecureRandom()
+            this.sslSocketFactory = UpstreamPools.unsafeSocketFactory();
+        }
+
+        okhttpBuilder.followRedirects(this.config.followRedirects);
+
+        // With h2, concurrent requests get multiplexed over a handful of connections.
+        okhttpBuilder.protocols(this.config.upstreamProtocol.getProtocols());
+
+        OkHttpClient client = okhttpBuilder.build();
+
+        ProxyTarget[] targets = new ProxyTarget[this.config.targets.size()];
+        for (int i = 0; i < targets.length; i++) {
+            ProxyTargetConfiguration target = this.config.targets.get(i);
+            HttpUrl parsed = HttpUrl.parse(target.url.replaceFirst("^ws", "http"));
+            String host = parsed == null ? null : parsed.host();
+
+            CircuitBreaker breaker = null;
+            if (this.config.circuitBreakerEnabled) {
+                breaker = new CircuitBreaker(
+                    this.config.circuitBreakerWindowSeconds,
+                    this.config.circuitBreakerMinimumCalls,
+                    this.config.circuitBreakerFailureRatePercent,
+                    this.config.circuitBreakerSlowCallRatePercent,
+                    TimeUnit.MILLISECONDS.toNanos(this.config.circuitBreakerSlowCallMillis),
+                    TimeUnit.SECONDS.toNanos(this.config.circuitBreakerOpenSeconds),
+                    this.config.circuitBreakerTrialCalls
+                );
+            }
+
+            if (this.config.forwardHost) {
+                // We intercept hostname lookups and give the result for the target's host.
+                targets[i] = new ProxyTarget(
+                    target.url, target.weight, host,
+                    client.newBuilder()
+                        .dns(host == null ? Dns.SYSTEM : UpstreamPools.forwardedDns(host))
+                        .build(),
+                    breaker
+                );
+            } else {
+                targets[i] = new ProxyTarget(target.url, target.weight, host, client, breaker);
+            }
+        }
+
+        this.loadBalancer = new LoadBalancer(targets, this.config.loadBalancer);
+        this.retryBudget = new RetryBudget(this.config.retryBudgetPercent / 100.0, this.config.retryBudgetMinPerSecond);
+
+        if (this.config.hedgePercentile > 0) {
+            this.latencies = new LatencyTracker(this.config.hedgePercentile);
+        }
+
+        if (this.config.cacheEnabled) {
+            this.cache = new HttpCache(
+                this.config.cacheMaxMegabytes * 1024L * 1024L,
+                this.config.cacheMaxEntryKilobytes * 1024L
             );
-            this.sslSocketFactory = sslContext.getSocketFactory();
 
-            okhttpBuilder.sslSocketFactory(this.sslSocketFactory, UnsafeTrustManager.INSTANCE);
-            okhttpBuilder.hostnameVerifier((hostname, session) -> true);
+            if (this.config.cacheCoalesceRequests) {
+                this.coalescer = new RequestCoalescer();
+            }
         }
+    }
 
-        if (this.config.forwardHost) {
-            this.proxyUrlHost = HttpUrl
-                .parse(this.config.proxyUrl)
-                .host();
+    @Override
+    public synchronized void onLoad(HttpRouter router) {
+        if ((this.config.healthCheckPath != null) && (this.healthChecker == null)) {
+            this.healthChecker = new HealthChecker(
+                router.getLogger(),
+                this.loadBalancer.getTargets(),
+                this.config.healthCheckPath,
+                this.config.healthCheckExpectedStatus,
+                this.config.healthCheckIntervalSeconds,
+                this.config.healthCheckTimeoutSeconds,
+                this.config.healthCheckHealthyThreshold,
+                this.config.healthCheckUnhealthyThreshold
+            );
+            this.healthChecker.start();
+        }
 
-            // We intercept hostname lookups and give the result for the proxyUrl's host.
-            okhttpBuilder.dns((hostname) -> {
-                return Dns.SYSTEM.lookup(this.proxyUrlHost);
-            });
+        if ((this.cache != null) && (this.config.cacheDiskDirectory != null) && (this.cache.getDisk() == null)) {
+            try {
+                DiskCache disk = DiskCache.open(
+                    new File(this.config.cacheDiskDirectory),
+                    this.config.cacheDiskMaxMegabytes * 1024L * 1024L
+                );
+                this.cache.attachDisk(disk, this.config.cacheDiskMaxEntryMegabytes * 1024L * 1024L);
+            } catch (IOException e) {
+                router.getLogger().severe("Couldn't open the disk cache at %s, continuing without it:\n%s", this.config.cacheDiskDirectory, e);
+            }
         }
+    }
 
-        okhttpBuilder.followRedirects(this.config.followRedirects);
+    @Override
+    public synchronized void onUnload() {
+        if (this.healthChecker != null) {
+            this.healthChecker.stop();
+            this.healthChecker = null;
+        }
 
-        this.client = okhttpBuilder.build();
+        if (this.cache != null) {
+            DiskCache disk = this.cache.detachDisk();
+            if (disk != null) {
+                try {
+                    disk.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private void reportOutcome(FastLogger logger, ProxyTarget target, boolean success) {
+        if (success) {
+            target.reportSuccess();
+        } else if (target.reportFailure(this.config.outlierConsecutiveFailures, TimeUnit.SECONDS.toNanos(this.config.outlierEjectionSeconds))) {
+            logger.warn("Ejecting upstream %s for %ds after %d consecutive failures.", target, this.config.outlierEjectionSeconds, this.config.outlierConsecutiveFailures);
+        }
+    }
+
+    private void recordBreaker(FastLogger logger, ProxyTarget target, @Nullable CircuitBreaker.Ticket ticket, boolean failed, long latencyNanos) {
+        if (ticket == null) return;
+
+        if (target.getCircuitBreaker().record(ticket, failed, latencyNanos)) {
+            logger.warn("Opening the circuit breaker for upstream %s for %ds.", target, this.config.circuitBreakerOpenSeconds);
+        }
     }
 
     @JsonClass(exposeAll = true)
     public static class HostConfiguration {
-        @JsonField("proxy_url")
-        public String proxyUrl = "https://example.com";
+        // Either a string or an array of strings/objects. See the (de)serializers below.
+        @JsonExclude
+        public List<ProxyTargetConfiguration> targets = List.of(new ProxyTargetConfiguration("https://example.com", 1));
+
+        @JsonField("load_balancer")
+        public LoadBalancer.Strategy loadBalancer = LoadBalancer.Strategy.ROUND_ROBIN;
+
+        @JsonField("upstream_protocol")
+        public UpstreamProtocol upstreamProtocol = UpstreamProtocol.HTTP_2;
+
+        @JsonField("compression")
+        public ProxyCompression compression = ProxyCompression.IDENTITY;
 
         @JsonField("proxy_path")
         public String proxyPath = null;
@@ -169,16 +332,205 @@ public class ProxyServlet extends HttpServlet {
         @JsonField("solve_for_ip")
         public boolean solveForIp = false;
 
+        @JsonField("health_check_path")
+        public String healthCheckPath = null; // null = Disabled
+
+        @JsonField("health_check_expected_status")
+        public int healthCheckExpectedStatus = 200;
+
+        @JsonField("health_check_interval_seconds")
+        public int healthCheckIntervalSeconds = 10;
+
+        @JsonField("health_check_timeout_seconds")
+        public int healthCheckTimeoutSeconds = 5;
+
+        @JsonField("health_check_healthy_threshold")
+        public int healthCheckHealthyThreshold = 2;
+
+        @JsonField("health_check_unhealthy_threshold")
+        public int healthCheckUnhealthyThreshold = 3;
+
+        @JsonField("outlier_consecutive_failures")
+        public int outlierConsecutiveFailures = 0; // 0 = Disabled
+
+        @JsonField("outlier_ejection_seconds")
+        public int outlierEjectionSeconds = 30;
+
+        // Fails fast while a target is struggling instead of waiting on timeouts.
+        @JsonField("circuit_breaker_enabled")
+        public boolean circuitBreakerEnabled = false;
+
+        @JsonField("circuit_breaker_window_seconds")
+        public int circuitBreakerWindowSeconds = 10;
+
+        @JsonField("circuit_breaker_minimum_calls")
+        public int circuitBreakerMinimumCalls = 20;
+
+        @JsonField("circuit_breaker_failure_rate_percent")
+        public int circuitBreakerFailureRatePercent = 50;
+
+        @JsonField("circuit_breaker_slow_call_rate_percent")
+        public int circuitBreakerSlowCallRatePercent = 0; // 0 = Disabled
+
+        @JsonField("circuit_breaker_slow_call_millis")
+        public int circuitBreakerSlowCallMillis = 5000;
+
+        @JsonField("circuit_breaker_open_seconds")
+        public int circuitBreakerOpenSeconds = 30;
+
+        @JsonField("circuit_breaker_trial_calls")
+        public int circuitBreakerTrialCalls = 3;
+
+        @JsonField("circuit_breaker_status")
+        public int circuitBreakerStatus = 503;
+
+        // Only idempotent requests without a body get retried, on connection failures and these statuses.
+        @JsonField("retry_attempts")
+        public int retryAttempts = 0; // 0 = Disabled
+
+        @JsonField("retry_statuses")
+        public int[] retryStatuses = {
+                502,
+                503,
+                504
+        };
+
+        // Retries (and hedges) can't go over this percentage of requests, plus the per second allowance.
+        @JsonField("retry_budget_percent")
+        public int retryBudgetPercent = 20;
+
+        @JsonField("retry_budget_min_per_second")
+        public int retryBudgetMinPerSecond = 10;
+
+        // Safe requests that take longer than this percentile get sent to another target too, first response wins.
+        @JsonField("hedge_percentile")
+        public int hedgePercentile = 0; // 0 = Disabled
+
+        @JsonField("hedge_min_delay_millis")
+        public int hedgeMinDelayMillis = 10;
+
+        @JsonField("cache_enabled")
+        public boolean cacheEnabled = false;
+
+        @JsonField("cache_max_megabytes")
+        public int cacheMaxMegabytes = 64;
+
+        @JsonField("cache_max_entry_kilobytes")
+        public int cacheMaxEntryKilobytes = 1024;
+
+        // Concurrent misses for the same resource wait on a single upstream request.
+        @JsonField("cache_coalesce_requests")
+        public boolean cacheCoalesceRequests = false;
+
+        @JsonField("cache_coalesce_timeout_seconds")
+        public int cacheCoalesceTimeoutSeconds = 5;
+
+        // The disk tier holds responses that are too big for the in-memory cache.
+        @JsonField("cache_disk_directory")
+        public String cacheDiskDirectory = null; // null = Disabled
+
+        @JsonField("cache_disk_max_megabytes")
+        public int cacheDiskMaxMegabytes = 1024;
+
+        @JsonField("cache_disk_max_entry_megabytes")
+        public int cacheDiskMaxEntryMegabytes = 64;
+
         @JsonValidate
         private void $validate() {
-            assert this.proxyUrl != null : "The `proxy_url` option must be set.";
-            assert !this.proxyUrl.isEmpty() : "The `proxy_url` option must not be empty.";
+            assert this.targets != null : "The `proxy_url` option must be set.";
+            assert !this.targets.isEmpty() : "The `proxy_url` option must not be empty.";
+            for (ProxyTargetConfiguration target : this.targets) {
+                assert target.url != null : "The `proxy_url` option must be set.";
+                assert !target.url.isEmpty() : "The `proxy_url` option must not be empty.";
+                assert (target.weight > 0) && (target.weight <= 100) : "A target's `weight` must be between 1 and 100.";
+            }
+            assert this.loadBalancer != null : "The `load_balancer` option must be set.";
+            assert this.upstreamProtocol != null : "The `upstream_protocol` option must be set.";
+            assert this.compression != null : "The `compression` option must be set.";
+            if (this.upstreamProtocol == UpstreamProtocol.H2C) {
+                for (ProxyTargetConfiguration target : this.targets) {
+                    assert !target.url.startsWith("https://") && !target.url.startsWith("wss://") : "The H2C `upstream_protocol` only works with cleartext (http://) targets.";
+                }
+            }
+            assert (this.healthCheckPath == null) || this.healthCheckPath.startsWith("/") : "The `health_check_path` option must start with a `/`.";
+            assert this.healthCheckIntervalSeconds > 0 : "The `health_check_interval_seconds` option must be greater than 0.";
+            assert this.healthCheckTimeoutSeconds > 0 : "The `health_check_timeout_seconds` option must be greater than 0.";
+            assert this.healthCheckHealthyThreshold > 0 : "The `health_check_healthy_threshold` option must be greater than 0.";
+            assert this.healthCheckUnhealthyThreshold > 0 : "The `health_check_unhealthy_threshold` option must be greater than 0.";
+            assert this.outlierConsecutiveFailures >= 0 : "The `outlier_consecutive_failures` option must be positive.";
+            assert this.outlierEjectionSeconds > 0 : "The `outlier_ejection_seconds` option must be greater than 0.";
+            assert this.circuitBreakerWindowSeconds > 0 : "The `circuit_breaker_window_seconds` option must be greater than 0.";
+            assert this.circuitBreakerMinimumCalls > 0 : "The `circuit_breaker_minimum_calls` option must be greater than 0.";
+            assert (this.circuitBreakerFailureRatePercent > 0) && (this.circuitBreakerFailureRatePercent <= 100) : "The `circuit_breaker_failure_rate_percent` option must be between 1 and 100.";
+            assert (this.circuitBreakerSlowCallRatePercent >= 0) && (this.circuitBreakerSlowCallRatePercent <= 100) : "The `circuit_breaker_slow_call_rate_percent` option must be between 0 and 100.";
+            assert this.circuitBreakerSlowCallMillis > 0 : "The `circuit_breaker_slow_call_millis` option must be greater than 0.";
+            assert this.circuitBreakerOpenSeconds > 0 : "The `circuit_breaker_open_seconds` option must be greater than 0.";
+            assert this.circuitBreakerTrialCalls > 0 : "The `circuit_breaker_trial_calls` option must be greater than 0.";
+            assert (this.circuitBreakerStatus >= 100) && (this.circuitBreakerStatus <= 599) : "The `circuit_breaker_status` option must be a valid status code.";
+            assert this.retryAttempts >= 0 : "The `retry_attempts` option must be positive.";
+            assert this.retryStatuses != null : "The `retry_statuses` option must be set.";
+            assert this.retryBudgetPercent >= 0 : "The `retry_budget_percent` option must be positive.";
+            assert this.retryBudgetMinPerSecond >= 0 : "The `retry_budget_min_per_second` option must be positive.";
+            assert (this.hedgePercentile >= 0) && (this.hedgePercentile < 100) : "The `hedge_percentile` option must be between 0 and 99.";
+            assert this.hedgeMinDelayMillis >= 0 : "The `hedge_min_delay_millis` option must be positive.";
+            assert this.cacheMaxMegabytes > 0 : "The `cache_max_megabytes` option must be greater than 0.";
+            assert this.cacheMaxEntryKilobytes > 0 : "The `cache_max_entry_kilobytes` option must be greater than 0.";
+            assert this.cacheCoalesceTimeoutSeconds > 0 : "The `cache_coalesce_timeout_seconds` option must be greater than 0.";
+            assert this.cacheDiskMaxMegabytes > 0 : "The `cache_disk_max_megabytes` option must be greater than 0.";
+            assert this.cacheDiskMaxEntryMegabytes > 0 : "The `cache_disk_max_entry_megabytes` option must be greater than 0.";
+        }
+
+        @JsonDeserializationMethod("proxy_url")
+        private void $deserialize_proxy_url(JsonElement e) throws JsonValidationException, JsonParseException {
+            List<ProxyTargetConfiguration> targets = new ArrayList<>();
+
+            if (e.isJsonArray()) {
+                for (JsonElement target : e.getAsArray()) {
+                    if (target.isJsonString()) {
+                        targets.add(new ProxyTargetConfiguration(target.getAsString(), 1));
+                    } else {
+                        targets.add(Rson.DEFAULT.fromJson(target, ProxyTargetConfiguration.class));
+                    }
+                }
+            } else {
+                targets.add(new ProxyTargetConfiguration(e.getAsString(), 1));
+            }
+
+            this.targets = targets;
         }
 
+        @JsonSerializationMethod("proxy_url")
+        private JsonElement $serialize_proxy_url() {
+            boolean isWeighted = this.targets.stream().anyMatch((t) -> t.weight != 1);
+
+            if ((this.targets.size() == 1) && !isWeighted) {
+                return new JsonString(this.targets.get(0).url);
+            }
+
+            JsonArray arr = new JsonArray();
+            for (ProxyTargetConfiguration target : this.targets) {
+                if (isWeighted) {
+                    arr.add(Rson.DEFAULT.toJson(target));
+                } else {
+                    arr.add(target.url);
+                }
+            }
+            return arr;
+        }
+
+    }
+
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @JsonClass(exposeAll = true)
+    public static class ProxyTargetConfiguration {
+        public String url;
+        public int weight = 1;
+
     }
 
-    private String transformUrl(FastLogger logger, SimpleUri uri, boolean isWebSocket) {
-        String url = this.config.proxyUrl;
+    private String transformUrl(FastLogger logger, SimpleUri uri, ProxyTarget target, boolean isWebSocket) {
+        String url = target.getUrl();
 
         if (this.config.solveForIp) {
             String[] requested = uri.host.substring(0, uri.host.indexOf('.')).split("-");
@@ -207,10 +559,10 @@ public class ProxyServlet extends HttpServlet {
         }
 
         if (this.config.forwardHost) {
-            // Replace the proxyUrl's host with the session's host. Look at the above DNS
+            // Replace the target's host with the session's host. Look at the above DNS
             // logic to see what this does.
-            url = url.replaceFirst(this.proxyUrlHost, uri.host);
-            logger.debug("Rewrote %s to %s, keep this in mind for the following messages.", this.proxyUrlHost, uri.host);
+            url = url.replaceFirst(target.getHost(), uri.host);
+            logger.debug("Rewrote %s to %s, keep this in mind for the following messages.", target.getHost(), uri.host);
         }
 
         if (this.config.includePath) {
@@ -234,20 +586,10 @@ public class ProxyServlet extends HttpServlet {
         return url;
     }
 
-    @Override
-    public boolean matchHttp(HttpSession session, HttpRouter router) {
-        if (!this.config.allowHttp) {
-            return false;
-        }
-
-        // If the path doesn't match don't serve.
-        // A NULL or blank path is wildcard.
-        return this.config.proxyPath == null || this.config.proxyPath.isEmpty() || session.uri().path.matches(this.config.proxyPath);
-    }
-
     @Override
     public HttpResponse serveHttp(HttpSession session, HttpRouter router) {
-        final String url = this.transformUrl(session.logger(), session.uri(), false);
+        final ProxyTarget target = this.loadBalancer.select();
+        final String url = this.transformUrl(session.logger(), session.uri(), target, false);
 
         session.logger().debug("Final proxy url: %s", url);
         Request.Builder builder = new Request.Builder().url(url);
@@ -282,7 +624,9 @@ public class ProxyServlet extends HttpServlet {
 
         for (Entry<String, List<HeaderValue>> header : session.headers().entrySet()) {
             String key = header.getKey().toLowerCase();
-            if (DISALLOWED_HEADERS.contains(key)) continue;
+            if (DISALLOWED_HEADERS.contains(key) && !(key.equals("accept-encoding") && (this.config.compression != ProxyCompression.IDENTITY))) {
+                continue;
+            }
 
             for (HeaderValue value : header.getValue()) {
                 builder.addHeader(key, value.raw());
@@ -294,41 +638,457 @@ public class ProxyServlet extends HttpServlet {
         }
 
         Request request = builder.build();
-        Response response = null;
+
+        if ((this.cache != null) && HttpCache.isCacheable(request)) {
+            return this.serveCached(session, router, target, request);
+        }
 
         try {
-            Response $response_pointer = this.client.newCall(request).execute();
-            response = $response_pointer;
+            UpstreamCall call = this.executeWithRetries(session, router, target, request);
+            if (call == null) {
+                return HttpUtil.errorResponse(session, StandardHttpStatus.SERVICE_UNAVAILABLE, "Upstream is at capacity.");
+            }
 
-            HttpStatus status = HttpStatus.adapt(response.code(), response.message());
-            long responseLen = Long.parseLong(response.header("Content-Length", "-1"));
-            InputStream responseStream = response.body().byteStream();
-
-            HttpResponse result = new HttpResponse(
-                new ResponseContent() {
-                    @Override
-                    public void write(int recommendedBufferSize, OutputStream out) throws IOException {
-                        StreamUtil.streamTransfer(
-                            responseStream,
-                            out,
-                            recommendedBufferSize,
-                            responseLen
-                        );
-                    }
+            return this.toResponse(session, router, call);
+        } catch (CircuitBreaker.OpenException e) {
+            return this.circuitOpenResponse(session, e);
+        } catch (Throwable t) {
+            session.logger().severe("An error occurred whilst proxying (serving %s %s): \n%s", request.method(), request.url(), t);
+            return HttpUtil.errorResponse(session, StandardHttpStatus.INTERNAL_ERROR, "An error occurred whilst proxying.");
+        }
+    }
+
+    private HttpResponse circuitOpenResponse(HttpSession session, CircuitBreaker.OpenException e) {
+        session.logger().debug(e.getMessage());
+        return HttpUtil.errorResponse(session, HttpUtil.adaptStatus(this.config.circuitBreakerStatus, null), "Upstream is unavailable.")
+            .header("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+    }
+
+    private HttpResponse serveCached(HttpSession session, HttpRouter router, ProxyTarget target, Request request) {
+        // HEAD gets its own entries (and flights), it never has a body to share with GET.
+        final String key = request.method() + ' ' + session.uri().host + session.uri().rawPath + '?' + session.uri().query.raw;
+
+        CachedResponse cached = this.cache.get(key, request);
+        long now = System.currentTimeMillis();
+
+        if ((cached != null) && !CacheControl.parse(request.header("Cache-Control")).noCache) {
+            if (cached.isFresh(now)) {
+                this.cache.getHits().incrementAndGet();
+                return cached.toResponse(now, "Katana; hit");
+            }
+
+            if (cached.canServeWhileRevalidating(now)) {
+                this.cache.getStaleHits().incrementAndGet();
+
+                // Only one revalidation at a time per entry. It gets its own reference
+                // to the entry, ours goes to the response.
+                if (cached.getRevalidating().compareAndSet(false, true) && cached.retain()) {
+                    Thread.ofVirtual().name("Katana Cache Revalidation").start(() -> {
+                        try {
+                            UpstreamCall call = this.execute(router.getLogger(), router, target, cached.toConditionalRequest(request), null);
+                            if (call == null) return;
+
+                            try (call) {
+                                CachedResponse stored = this.storeOrFreshen(key, request, cached, call);
+                                if (stored != null) {
+                                    stored.release();
+                                } else {
+                                    // Too big for the heap, read it through the disk cache instead.
+                                    BufferedSource tee = this.cache.teeToDisk(key, request, call.response, call.requestTime, call.responseTime, null);
+                                    if (tee != null) {
+                                        try (tee) {
+                                            tee.readAll(Okio.blackhole());
+                                        }
+                                    }
+                                }
+                            }
+                        } catch (Throwable t) {
+                            router.getLogger().debug("Couldn't revalidate %s:\n%s", key, t);
+                        } finally {
+                            cached.getRevalidating().set(false);
+                            cached.release();
+                        }
+                    });
+                }
+
+                return cached.toResponse(now, "Katana; hit; fwd=stale");
+            }
+        }
 
-                    @Override
-                    public long length() {
-                        return responseLen;
+        this.cache.getMisses().incrementAndGet();
+
+        if (this.coalescer == null) {
+            return this.fetchThroughCache(session, router, target, request, key, cached, now, null);
+        }
+
+        RequestCoalescer.Flight flight = this.coalescer.lead(key);
+        if (flight != null) {
+            return this.fetchThroughCache(session, router, target, request, key, cached, now, flight);
+        }
+
+        // Someone else is already fetching this, wait for them and see if they
+        // managed to cache it. Otherwise we'll go and fetch it ourselves.
+        try {
+            if (this.coalescer.await(key, TimeUnit.SECONDS.toMillis(this.config.cacheCoalesceTimeoutSeconds))) {
+                long shareTime = System.currentTimeMillis();
+                CachedResponse shared = this.cache.get(key, request);
+                if (shared != null) {
+                    if (shared.isFresh(shareTime)) {
+                        if (cached != null) cached.release();
+                        return shared.toResponse(shareTime, "Katana; hit; detail=coalesced");
                     }
+                    shared.release();
+                }
+            } else {
+                session.logger().debug("Timed out waiting on a coalesced request, fetching independently.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (cached != null) cached.release();
+            return HttpUtil.errorResponse(session, StandardHttpStatus.INTERNAL_ERROR, "An error occurred whilst proxying.");
+        }
+
+        return this.fetchThroughCache(session, router, target, request, key, cached, now, null);
+    }
+
+    /**
+     * Takes over the reference to cached, if any, and the flight. The flight stays
+     * open until the response has been stored (or not), which for bodies that go
+     * to disk is only once the client has received all of it.
+     */
+    private HttpResponse fetchThroughCache(HttpSession session, HttpRouter router, ProxyTarget target, Request request, String key, @Nullable CachedResponse cached, long now, @Nullable RequestCoalescer.Flight flight) {
+        boolean flightHandedOff = false;
+        try {
+            UpstreamCall call;
+            try {
+                Request upstreamRequest = ((cached != null) && cached.hasValidators()) ? cached.toConditionalRequest(request) : request;
+                call = this.executeWithRetries(session, router, target, upstreamRequest);
+            } catch (Throwable t) {
+                if ((cached != null) && cached.canServeOnError(now)) {
+                    session.logger().warn("An error occurred whilst proxying, serving stale response (serving %s %s): \n%s", request.method(), request.url(), t);
+                    return cached.toResponse(now, "Katana; hit; fwd=stale; detail=error");
+                }
+                if (cached != null) cached.release();
+
+                if (t instanceof CircuitBreaker.OpenException) {
+                    return this.circuitOpenResponse(session, (CircuitBreaker.OpenException) t);
+                }
+
+                session.logger().severe("An error occurred whilst proxying (serving %s %s): \n%s", request.method(), request.url(), t);
+                return HttpUtil.errorResponse(session, StandardHttpStatus.INTERNAL_ERROR, "An error occurred whilst proxying.");
+            }
+
+            if (call == null) {
+                if ((cached != null) && cached.canServeOnError(now)) {
+                    return cached.toResponse(now, "Katana; hit; fwd=stale; detail=capacity");
+                }
+                if (cached != null) cached.release();
+                return HttpUtil.errorResponse(session, StandardHttpStatus.SERVICE_UNAVAILABLE, "Upstream is at capacity.");
+            }
+
+            boolean holdingCached = cached != null;
+            try {
+                if ((cached != null) && (call.response.code() >= 500) && cached.canServeOnError(now)) {
+                    call.close();
+                    holdingCached = false;
+                    return cached.toResponse(System.currentTimeMillis(), "Katana; hit; fwd=stale; detail=error");
+                }
 
-                    @Override
-                    public void close() throws IOException {
-                        $response_pointer.close();
+                CachedResponse stored = this.storeOrFreshen(key, request, cached, call);
+                if (cached != null) {
+                    cached.release();
+                    holdingCached = false;
+                }
+
+                if (stored != null) {
+                    call.close();
+                    return stored.toResponse(System.currentTimeMillis(), cached == null ? "Katana; fwd=miss; stored" : "Katana; fwd=stale; stored");
+                }
+
+                // Too big for the heap, it goes to disk as the client receives it.
+                // Followers wait for it to be committed (or not), so the flight goes along.
+                BufferedSource tee = this.cache.teeToDisk(key, request, call.response, call.requestTime, call.responseTime, flight == null ? null : flight::close);
+                flightHandedOff = tee != null;
+                return this.toResponse(session, router, call, tee);
+            } catch (Throwable t) {
+                call.close();
+                if (holdingCached) cached.release();
+                session.logger().severe("An error occurred whilst proxying (serving %s %s): \n%s", request.method(), request.url(), t);
+                return HttpUtil.errorResponse(session, StandardHttpStatus.INTERNAL_ERROR, "An error occurred whilst proxying.");
+            }
+        } finally {
+            if ((flight != null) && !flightHandedOff) {
+                flight.close();
+            }
+        }
+    }
+
+    /**
+     * @return the response to serve from the cache (retained, see
+     *         {@link HttpCache#get(String, Request)}), or null if the call's response
+     *         couldn't be stored and should be streamed out as-is.
+     */
+    private @Nullable CachedResponse storeOrFreshen(String key, Request request, @Nullable CachedResponse cached, UpstreamCall call) throws IOException {
+        if ((cached != null) && (call.response.code() == 304)) {
+            return this.cache.freshen(key, cached, call.response, call.requestTime, call.responseTime);
+        }
+
+        CachedResponse stored = this.cache.store(key, request, call.response, call.requestTime, call.responseTime);
+        if ((stored == null) && (cached != null) && request.method().equals("GET")) {
+            // The origin doesn't want it cached anymore.
+            this.cache.invalidate(key, cached);
+        }
+        return stored;
+    }
+
+    /**
+     * Executes the request, retrying idempotent ones on connection failures and
+     * the configured statuses (as long as the retry budget allows it). Safe ones
+     * get hedged, if enabled.
+     *
+     * @return the in-flight call, or null if the upstream is at capacity. Make sure
+     *         to close it!
+     */
+    private @Nullable UpstreamCall executeWithRetries(HttpSession session, HttpRouter router, ProxyTarget target, Request request) throws IOException, InterruptedException {
+        // We can't replay a body, it's streamed straight from the client.
+        boolean replayable = !session.body().present();
+        boolean retryable = replayable && (this.config.retryAttempts > 0) && IDEMPOTENT_METHODS.contains(request.method());
+        boolean hedgeable = replayable && (this.latencies != null) && SAFE_METHODS.contains(request.method());
+
+        // Only requests that could ever spend from the budget pay into it, that
+        // keeps the lock off the hot path when retries and hedging are off.
+        if (retryable || hedgeable) {
+            this.retryBudget.deposit();
+        }
+
+        for (int attempt = 0;; attempt++) {
+            boolean canRetry = retryable && (attempt < this.config.retryAttempts);
+
+            UpstreamCall call;
+            try {
+                call = hedgeable ? this.executeHedged(session, router, target, request) : this.execute(session.logger(), router, target, request, null);
+            } catch (IOException e) {
+                if (!canRetry || !this.withdrawRetry()) throw e;
+
+                session.logger().debug("Retrying %s %s after an error:\n%s", request.method(), request.url(), e);
+                target = this.loadBalancer.selectOther(target);
+                request = this.retarget(session, request, target);
+                continue;
+            }
+
+            if ((call != null) && canRetry && this.isRetryStatus(call.response.code()) && this.withdrawRetry()) {
+                session.logger().debug("Retrying %s %s after a %d.", request.method(), request.url(), call.response.code());
+                call.close();
+                target = this.loadBalancer.selectOther(target);
+                request = this.retarget(session, request, target);
+                continue;
+            }
+
+            return call;
+        }
+    }
+
+    private boolean withdrawRetry() {
+        if (this.retryBudget.tryWithdraw()) {
+            this.retries.incrementAndGet();
+            return true;
+        } else {
+            this.retriesDenied.incrementAndGet();
+            return false;
+        }
+    }
+
+    private boolean isRetryStatus(int code) {
+        for (int status : this.config.retryStatuses) {
+            if (status == code) return true;
+        }
+        return false;
+    }
+
+    private Request retarget(HttpSession session, Request request, ProxyTarget target) {
+        return request.newBuilder()
+            .url(this.transformUrl(session.logger(), session.uri(), target, false))
+            .build();
+    }
+
+    /**
+     * Sends the request and, if it takes longer than our latency percentile, sends
+     * it to another target as well. Whichever responds first wins and the other
+     * one gets cancelled.
+     */
+    private @Nullable UpstreamCall executeHedged(HttpSession session, HttpRouter router, ProxyTarget target, Request request) throws IOException, InterruptedException {
+        long threshold = this.latencies.get();
+        ProxyTarget other = this.loadBalancer.selectOther(target);
+        if ((threshold == -1) || (other == target)) {
+            return this.execute(session.logger(), router, target, request, null);
+        }
+
+        long delay = Math.max(threshold, TimeUnit.MILLISECONDS.toNanos(this.config.hedgeMinDelayMillis));
+        BlockingQueue<Attempt> results = new LinkedBlockingQueue<>();
+        List<Attempt> attempts = new ArrayList<>(2);
+        attempts.add(this.attempt(session, router, target, request, results));
+
+        Attempt winner = null;
+        try {
+            winner = results.poll(delay, TimeUnit.NANOSECONDS);
+            if ((winner == null) && this.retryBudget.tryWithdraw()) {
+                this.hedges.incrementAndGet();
+                attempts.add(this.attempt(session, router, other, this.retarget(session, request, other), results));
+            }
+
+            if (winner == null) {
+                winner = results.take();
+            }
+            if ((winner.error != null) && (attempts.size() > 1)) {
+                // The other one might still make it.
+                winner = results.take();
+            }
+        } finally {
+            for (Attempt attempt : attempts) {
+                if (attempt != winner) attempt.abandon();
+            }
+        }
+
+        if (winner != attempts.get(0)) {
+            this.hedgeWins.incrementAndGet();
+        }
+        return winner.get();
+    }
+
+    private Attempt attempt(HttpSession session, HttpRouter router, ProxyTarget target, Request request, BlockingQueue<Attempt> results) {
+        Attempt attempt = new Attempt();
+
+        Thread.ofVirtual().name("Katana Hedged Request").start(() -> {
+            try {
+                UpstreamCall call = this.execute(session.logger(), router, target, request, attempt.inFlight);
+                attempt.call = call;
+
+                if ((call != null) && attempt.abandoned.get()) {
+                    call.close(); // Lost the race.
+                }
+            } catch (Throwable t) {
+                attempt.error = t;
+            }
+            results.add(attempt);
+        });
+
+        return attempt;
+    }
+
+    /**
+     * @param  inFlight gets the OkHttp call before it's executed, so that it can be
+     *                  cancelled.
+     *
+     * @return          the in-flight call, or null if the upstream is at capacity.
+     *                  Make sure to close it!
+     */
+    private @Nullable UpstreamCall execute(FastLogger logger, HttpRouter router, ProxyTarget target, Request request, @Nullable AtomicReference<Call> inFlight) throws IOException, InterruptedException {
+        UpstreamPool pool = router.getUpstreamPools().get(request.url());
+        OkHttpClient client = target.getClient(pool);
+
+        CircuitBreaker breaker = target.getCircuitBreaker();
+        CircuitBreaker.Ticket ticket = null;
+        if (breaker != null) {
+            ticket = breaker.tryAcquire();
+            if (ticket == null) throw new CircuitBreaker.OpenException(String.format("Circuit breaker for upstream %s is open.", target), breaker.getRemainingOpenSeconds());
+        }
+
+        Permit permit;
+        try {
+            permit = pool.acquire();
+        } catch (InterruptedException e) {
+            if (ticket != null) breaker.release(ticket);
+            throw e;
+        }
+
+        if (permit == null) {
+            if (ticket != null) breaker.release(ticket);
+            logger.warn("Upstream %s is at capacity, rejecting.", pool.getOrigin());
+            return null;
+        }
+
+        target.begin();
+
+        Call call = client.newCall(request);
+        if (inFlight != null) {
+            inFlight.set(call);
+        }
+
+        long requestTime = System.currentTimeMillis();
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = call.execute();
+        } catch (Throwable t) {
+            permit.close();
+            target.end();
+            if (call.isCanceled()) {
+                if (ticket != null) breaker.release(ticket);
+            } else {
+                // We never got a response, most likely a connection failure.
+                this.reportOutcome(logger, target, false);
+                this.recordBreaker(logger, target, ticket, true, System.nanoTime() - start);
+            }
+            throw t;
+        }
+
+        long latency = System.nanoTime() - start;
+        target.recordLatency(latency);
+        if (this.latencies != null) {
+            this.latencies.record(latency);
+        }
+        this.reportOutcome(logger, target, response.code() < 500);
+        this.recordBreaker(logger, target, ticket, response.code() >= 500, latency);
+
+        return new UpstreamCall(response, permit, target, requestTime, System.currentTimeMillis());
+    }
+
+    private HttpResponse toResponse(HttpSession session, HttpRouter router, UpstreamCall call) {
+        return this.toResponse(session, router, call, null);
+    }
+
+    /**
+     * @param source where to read the body from instead of the response, e.g a tee
+     *               into the disk cache.
+     */
+    private HttpResponse toResponse(HttpSession session, HttpRouter router, UpstreamCall call, @Nullable BufferedSource source) {
+        Response response = call.response;
+
+        try {
+            HttpStatus status = HttpUtil.adaptStatus(response.code(), response.message());
+            long responseLen = Long.parseLong(response.header("Content-Length", "-1"));
+            BufferedSource responseSource = source == null ? response.body().source() : source;
+
+            HttpCompressionConfiguration compression = this.getEffectiveCompression(router);
+            Encoding encoding = this.negotiateCompression(session, compression, response, responseLen);
+
+            ResponseContent content = new ResponseContent() {
+                @Override
+                public void write(int recommendedBufferSize, OutputStream out) throws IOException {
+                    drain(responseSource, out, responseLen);
+                }
+
+                @Override
+                public long length() {
+                    return responseLen;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        if (source != null) source.close();
+                    } finally {
+                        call.close();
                     }
+                }
+
+            };
+
+            if (encoding != null) {
+                content = ResponseCompressor.compress(content, encoding, compression.level);
+            }
 
-                },
-                status
-            )
+            HttpResponse result = new HttpResponse(content, status)
                 .mime(response.header("Content-Type"));
 
             for (Pair<? extends String, ? extends String> header : response.headers()) {
@@ -336,43 +1096,153 @@ public class ProxyServlet extends HttpServlet {
 
                 if (key.equalsIgnoreCase("Transfer-Encoding") ||
                     key.equalsIgnoreCase("Content-Length") ||
-                    key.equalsIgnoreCase("Content-Encoding") ||
                     key.equalsIgnoreCase("Content-Type")) {
                     continue;
                 }
 
+                if (key.equalsIgnoreCase("Content-Encoding") && (this.config.compression == ProxyCompression.IDENTITY)) {
+                    continue;
+                }
+
+                if (encoding != null) {
+                    // The representation changed, so we need to tell caches about it.
+                    if (key.equalsIgnoreCase("Vary")) continue;
+                    if (key.equalsIgnoreCase("ETag") && !header.getSecond().startsWith("W/")) {
+                        result.header(key, "W/" + header.getSecond());
+                        continue;
+                    }
+                }
+
                 result.header(key, header.getSecond());
             }
 
+            if (encoding != null) {
+                List<String> vary = new ArrayList<>(response.headers("Vary"));
+                vary.add("Accept-Encoding");
+                result.header("Vary", String.join(", ", vary));
+                result.header("Content-Encoding", encoding.getToken());
+            }
+
             return result;
         } catch (Throwable t) {
-            session.logger().severe("An error occurred whilst proxying (serving %s %s): \n%s", builder.getMethod$okhttp(), builder.getUrl$okhttp(), t);
-            if (response != null) {
-                response.close();
+            if (source != null) {
+                try {
+                    source.close(); // Gives up on the tee, if that's what it is.
+                } catch (IOException ignored) {}
             }
-            return HttpUtil.errorResponse(session, StandardHttpStatus.INTERNAL_ERROR, "An error occurred whilst proxying.");
+            call.close();
+            throw t;
         }
     }
 
-    @Override
-    public boolean matchWebsocket(WebsocketSession session, HttpRouter router) {
-        if (!this.config.allowWebsockets) {
-            return false;
+    /**
+     * The COMPRESS mode always compresses, otherwise we follow the router's (or
+     * servlet's) compression settings.
+     */
+    private @Nullable Encoding negotiateCompression(HttpSession session, HttpCompressionConfiguration compression, Response response, long length) {
+        if (!compression.enabled && (this.config.compression != ProxyCompression.COMPRESS)) return null;
+
+        if (response.header("Content-Encoding") != null) return null; // Already compressed.
+        if (response.header("Content-Range") != null) return null; // Ranges are of the identity body.
+        if ((response.code() == 204) || (response.code() == 304)) return null;
+        if (session.rawMethod().equals("HEAD")) return null;
+        if (!ResponseCompressor.isCompressible(compression, response.header("Content-Type"), length)) return null;
+
+        // Note that response.request() is the network request, which has OkHttp's own
+        // Accept-Encoding in it.
+        HeaderValue acceptEncoding = session.headers().getSingle("Accept-Encoding");
+        return ResponseCompressor.negotiate(acceptEncoding == null ? null : acceptEncoding.raw());
+    }
+
+    /**
+     * Moves Okio's (pooled) segments straight to the client, rather than copying
+     * them into an intermediate byte[] first.
+     */
+    private static void drain(BufferedSource source, OutputStream out, long length) throws IOException {
+        Buffer buffer = new Buffer();
+
+        while (source.read(buffer, DRAIN_SIZE) != -1) {
+            buffer.writeTo(out, buffer.size());
+
+            if (length == -1) {
+                // Probably a stream of some sort (e.g SSE), don't hold anything back.
+                out.flush();
+            }
         }
+    }
 
-        // If the path doesn't match don't serve.
-        // A NULL path is wildcard.
-        if ((this.config.proxyPath != null) && !session.uri().path.matches(this.config.proxyPath)) {
-            return false;
+    /**
+     * A response from upstream, along with everything that needs to be released
+     * once we're done with it.
+     */
+    private static class UpstreamCall implements AutoCloseable {
+        private final Response response;
+        private final Permit permit;
+        private final ProxyTarget target;
+        private final long requestTime;
+        private final long responseTime;
+
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private UpstreamCall(Response response, Permit permit, ProxyTarget target, long requestTime, long responseTime) {
+            this.response = response;
+            this.permit = permit;
+            this.target = target;
+            this.requestTime = requestTime;
+            this.responseTime = responseTime;
+        }
+
+        @Override
+        public void close() {
+            if (!this.closed.compareAndSet(false, true)) return;
+
+            try {
+                this.response.close();
+            } finally {
+                this.permit.close();
+                this.target.end();
+            }
+        }
+
+    }
+
+    /**
+     * One side of a hedged request.
+     */
+    private static class Attempt {
+        private final AtomicReference<Call> inFlight = new AtomicReference<>();
+        private final AtomicBoolean abandoned = new AtomicBoolean(false);
+
+        private volatile @Nullable UpstreamCall call;
+        private volatile @Nullable Throwable error;
+
+        private void abandon() {
+            if (!this.abandoned.compareAndSet(false, true)) return;
+
+            Call inFlight = this.inFlight.get();
+            if (inFlight != null) {
+                inFlight.cancel();
+            }
+
+            UpstreamCall call = this.call;
+            if (call != null) {
+                call.close();
+            }
+        }
+
+        @SneakyThrows
+        private @Nullable UpstreamCall get() {
+            if (this.error != null) throw this.error;
+            return this.call;
         }
 
-        return true;
     }
 
     @SneakyThrows
     @Override
     public WebsocketResponse serveWebsocket(WebsocketSession session, HttpRouter router) {
-        final String url = this.transformUrl(session.logger(), session.uri(), true);
+        final ProxyTarget target = this.loadBalancer.select();
+        final String url = this.transformUrl(session.logger(), session.uri(), target, true);
 
         session.logger().debug("Final proxy url: %s", url);
         URI uri = URI.create(url);
@@ -380,11 +1250,17 @@ public class ProxyServlet extends HttpServlet {
         PromiseResolver<Websocket> websocketPromise = Promise.withResolvers();
         RemoteWebSocketConnection remote = new RemoteWebSocketConnection(uri, session, websocketPromise.promise);
 
+        target.begin();
         try {
             session.logger().debug("Connecting to proxy target...");
+            long start = System.nanoTime();
             remote.socket.connect(TimeUnit.SECONDS.toMillis(15), TimeUnit.SECONDS.toMillis(5));
+            target.recordLatency(System.nanoTime() - start);
+            this.reportOutcome(session.logger(), target, true);
         } catch (Throwable t) {
             session.logger().severe("An error occurred whilst connecting to target (serving %s): \n%s", uri, t);
+            target.end();
+            this.reportOutcome(session.logger(), target, false);
             try {
                 remote.socket.close();
             } catch (Throwable ignored) {}
@@ -433,6 +1309,7 @@ public class ProxyServlet extends HttpServlet {
                         websocketPromise.reject(new IOException("Closed"));
                     }
 
+                    target.end();
                     try {
                         remote.socket.close();
                     } catch (Throwable ignored) {}
@@ -521,30 +1398,3 @@ public class ProxyServlet extends HttpServlet {
         }
     }
 }
-
-class UnsafeTrustManager extends X509ExtendedTrustManager {
-    public static final UnsafeTrustManager INSTANCE = new UnsafeTrustManager();
-
-    @Override
-    public void checkClientTrusted(X509Certificate[] chain, String authType) {}
-
-    @Override
-    public void checkServerTrusted(X509Certificate[] chain, String authType) {}
-
-    @Override
-    public X509Certificate[] getAcceptedIssuers() {
-        return new X509Certificate[] {};
-    }
-
-    @Override
-    public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) {}
-
-    @Override
-    public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) {}
-
-    @Override
-    public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {}
-
-    @Override
-    public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {}
-}
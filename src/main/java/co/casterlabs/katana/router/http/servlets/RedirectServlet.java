@@ -2,6 +2,7 @@ package co.casterlabs.katana.router.http.servlets;
 
 import co.casterlabs.katana.Util;
 import co.casterlabs.katana.router.http.HttpRouter;
+import co.casterlabs.katana.router.http.RoutePattern;
 import co.casterlabs.rakurai.json.Rson;
 import co.casterlabs.rakurai.json.annotating.JsonClass;
 import co.casterlabs.rakurai.json.annotating.JsonField;
@@ -43,8 +44,8 @@ public class RedirectServlet extends HttpServlet {
     }
 
     @Override
-    public boolean matchHttp(HttpSession session, HttpRouter router) {
-        return true;
+    public RoutePattern getHttpRoute() {
+        return RoutePattern.ANY;
     }
 
     @Override
@@ -1,12 +1,23 @@
 package co.casterlabs.katana.router.http.servlets;
 
 import java.io.File;
-import java.net.URLDecoder;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
+import org.jetbrains.annotations.Nullable;
+
 import co.casterlabs.katana.router.http.HttpRouter;
 import co.casterlabs.katana.router.http.HttpUtil;
+import co.casterlabs.katana.router.http.RoutePattern;
+import co.casterlabs.katana.router.http.compression.StaticCompression;
+import co.casterlabs.katana.router.http.files.DirectoryIndex;
+import co.casterlabs.katana.router.http.files.ETagMode;
+import co.casterlabs.katana.router.http.files.FileCache;
+import co.casterlabs.katana.router.http.files.StaticFile;
+import co.casterlabs.katana.router.http.files.StaticHeaders;
+import co.casterlabs.katana.router.http.files.ZipArchive;
+import co.casterlabs.katana.router.http.files.ZipSite;
 import co.casterlabs.rakurai.json.Rson;
 import co.casterlabs.rakurai.json.annotating.JsonClass;
 import co.casterlabs.rakurai.json.annotating.JsonField;
@@ -18,13 +29,18 @@ import co.casterlabs.rhs.HttpStatus.StandardHttpStatus;
 import co.casterlabs.rhs.protocol.http.HttpResponse;
 import co.casterlabs.rhs.protocol.http.HttpSession;
 import lombok.Getter;
-import lombok.NonNull;
 import lombok.SneakyThrows;
 
 public class StaticServlet extends HttpServlet {
     private static final List<String> defaultFiles = Arrays.asList("index.html", /*"index.miki",*/ "index2.html", "default.html", "home.html");
 
     private @Getter HostConfiguration config;
+    private @Getter StaticCompression staticCompression;
+    private @Getter @Nullable FileCache fileCache;
+    private @Getter StaticHeaders staticHeaders;
+    private @Getter @Nullable DirectoryIndex directoryIndex;
+    private @Getter @Nullable ZipSite zipSite;
+    private boolean preloaded = false;
 
     public StaticServlet() {
         super("STATIC");
@@ -33,6 +49,66 @@ public class StaticServlet extends HttpServlet {
     @Override
     public void init(JsonObject config) throws JsonValidationException, JsonParseException {
         this.config = Rson.DEFAULT.fromJson(config, HostConfiguration.class);
+        this.staticCompression = new StaticCompression(
+            this.config.compressedCacheMaxMegabytes * 1024L * 1024L,
+            this.config.compressedCacheMaxEntryKilobytes * 1024L,
+            this.config.servePrecompressed
+        );
+        this.staticHeaders = new StaticHeaders(this.config.etag, this.config.cacheControl);
+
+        if (ZipSite.isArchive(this.config.directory)) {
+            this.zipSite = new ZipSite(new File(this.config.directory), defaultFiles, this.config.preload);
+            return; // Nothing else applies.
+        }
+
+        this.directoryIndex = new DirectoryIndex(new File(this.config.directory), defaultFiles);
+
+        if (this.config.fileCacheMaxMegabytes > 0) {
+            this.fileCache = new FileCache(
+                new File(this.config.directory),
+                true,
+                this.config.fileCacheMaxMegabytes * 1024L * 1024L,
+                this.config.fileCacheMaxFileKilobytes * 1024L
+            );
+        }
+    }
+
+    @Override
+    public void onLoad(HttpRouter router) {
+        if (this.zipSite != null) {
+            this.zipSite.start(router.getLogger());
+        }
+        if (this.directoryIndex != null) {
+            this.directoryIndex.start(router.getLogger());
+        }
+        if (this.fileCache != null) {
+            this.fileCache.start(router.getLogger());
+
+            // onLoad() can get called more than once.
+            if (this.config.preload && !this.preloaded) {
+                this.preloaded = true;
+                this.fileCache.preload(router.getLogger(), this::warm);
+            }
+        }
+    }
+
+    @Override
+    public void onUnload() {
+        if (this.zipSite != null) {
+            this.zipSite.stop();
+        }
+        if (this.directoryIndex != null) {
+            this.directoryIndex.stop();
+        }
+        if (this.fileCache != null) {
+            this.fileCache.stop();
+        }
+        this.preloaded = false;
+    }
+
+    @SneakyThrows
+    private void warm(StaticFile file) {
+        this.staticHeaders.etag(file); // Strong ETags get memoized.
     }
 
     @JsonClass(exposeAll = true)
@@ -43,35 +119,82 @@ public class StaticServlet extends HttpServlet {
 //        @JsonField("use_miki")
 //        public boolean useMiki = false;
 
+        // Can also be a .zip or .jar, which gets served without unpacking it.
         public String directory = "www";
 
+        // Serves foo.js.br/foo.js.gz instead of foo.js when the client accepts it.
+        @JsonField("serve_precompressed")
+        public boolean servePrecompressed = false;
+
+        @JsonField("compressed_cache_max_megabytes")
+        public int compressedCacheMaxMegabytes = 32;
+
+        @JsonField("compressed_cache_max_entry_kilobytes")
+        public int compressedCacheMaxEntryKilobytes = 2048;
+
+        @JsonField("file_cache_max_megabytes")
+        public int fileCacheMaxMegabytes = 0; // 0 = Disabled
+
+        @JsonField("file_cache_max_file_kilobytes")
+        public int fileCacheMaxFileKilobytes = 256;
+
+        // Fills the file cache (or faults in the archive) before we start serving.
+        public boolean preload = false;
+
+        public ETagMode etag = ETagMode.WEAK;
+
+        // e.g "/assets/*.{hash}.js public, max-age=31536000, immutable", first match wins.
+        @JsonField("cache_control")
+        public String[] cacheControl = {};
+
         @JsonValidate
         private void $validate() {
             assert this.directory != null : "The `directory` option must be set.";
             assert !this.directory.isEmpty() : "The `directory` option must not be empty.";
+            assert this.compressedCacheMaxMegabytes > 0 : "The `compressed_cache_max_megabytes` option must be greater than 0.";
+            assert this.compressedCacheMaxEntryKilobytes > 0 : "The `compressed_cache_max_entry_kilobytes` option must be greater than 0.";
+            assert this.fileCacheMaxMegabytes >= 0 : "The `file_cache_max_megabytes` option must not be negative.";
+            assert this.fileCacheMaxFileKilobytes > 0 : "The `file_cache_max_file_kilobytes` option must be greater than 0.";
+            assert !this.preload || (this.fileCacheMaxMegabytes > 0) || ZipSite.isArchive(this.directory) : "The `preload` option requires the `file_cache_max_megabytes` option to be set.";
+            assert this.etag != null : "The `etag` option must be one of NONE, WEAK or STRONG.";
+            assert this.cacheControl != null : "The `cache_control` option must be set.";
+            for (String rule : this.cacheControl) {
+                assert StaticHeaders.isValidRule(rule) : "The `cache_control` rules must be in the form of `pattern value`: " + rule;
+            }
         }
 
     }
 
     @Override
-    public boolean matchHttp(HttpSession session, HttpRouter router) {
-        return true;
+    public RoutePattern getHttpRoute() {
+        return RoutePattern.ANY;
     }
 
-    @SneakyThrows
     @Override
     public HttpResponse serveHttp(HttpSession session, HttpRouter router) {
-        String uri = decodeURIComponent(session.uri().path);
-        File directory = new File(this.config.directory);
+        String uri = HttpUtil.normalizePath(session.uri().path);
+        if (uri == null) {
+            return HttpUtil.errorResponse(session, StandardHttpStatus.NOT_FOUND, "File not found.");
+        }
 
         try {
-            File file = getFile(directory, uri, this.config.requireFileExtensions, defaultFiles);
+            if (this.zipSite != null) {
+                return this.serveArchive(session, router, uri);
+            }
+
+            StaticFile cached = (this.fileCache == null) ? null : this.fileCache.get(uri);
+            if (cached != null) {
+                return this.respond(session, router, uri, cached);
+            }
+
+            File file = this.directoryIndex.resolve(uri, this.config.requireFileExtensions);
 
-            if (file.exists() && file.isFile()) {
+            if ((file != null) && file.isFile()) {
 //                if (this.config.useMiki && FileUtil.isMiki(file)) {
 //                    return FileUtil.serveMiki(session, file, StandardHttpStatus.OK);
 //                } else {
-                return HttpResponse.newRangedFileResponse(session, StandardHttpStatus.OK, file);
+                StaticFile staticFile = (this.fileCache == null) ? StaticFile.of(file) : this.fileCache.put(uri, file);
+                return this.respond(session, router, uri, staticFile);
 //                }
             }
 
@@ -82,36 +205,37 @@ public class StaticServlet extends HttpServlet {
         }
     }
 
-    @SneakyThrows
-    public static String decodeURIComponent(@NonNull String s) {
-        return URLDecoder.decode(s, "UTF-8");
-    }
+    private HttpResponse serveArchive(HttpSession session, HttpRouter router, String uri) {
+        ZipArchive archive = this.zipSite.get();
+        if (archive == null) {
+            return HttpUtil.errorResponse(session, StandardHttpStatus.SERVICE_UNAVAILABLE, "Site is unavailable.");
+        }
 
-    private static File getFile(File directory, String rawUri, boolean requireFileExtensions, List<String> defaultFiles) {
-        String uri = rawUri.endsWith("/") ? rawUri.substring(0, rawUri.length() - 1) : rawUri;
-        File file = new File(directory, uri);
+        ZipArchive.Entry entry = archive.resolve(uri, this.config.requireFileExtensions);
+        if (entry == null) {
+            return HttpUtil.errorResponse(session, StandardHttpStatus.NOT_FOUND, "File not found.");
+        }
 
-        if (file.isDirectory() && (defaultFiles != null)) {
-            for (String def : defaultFiles) {
-                File defFile = new File(file, def);
+        String etag = this.staticHeaders.etag(entry);
+        String cacheControl = this.staticHeaders.cacheControl(uri);
 
-                if (defFile.isFile()) return defFile;
-            }
-        } else if (!file.exists() && !requireFileExtensions && !file.getName().contains(".")) {
-            String name = file.getName().split("\\.")[0];
-            String[] split = uri.split("/");
-            File parent = new File(directory, uri.replace("/" + split[split.length - 1], ""));
-
-            if (parent.isDirectory()) {
-                for (File possible : parent.listFiles()) {
-                    if (possible.isFile() && possible.getName().split("\\.")[0].equalsIgnoreCase(name)) {
-                        return possible;
-                    }
-                }
-            }
-        }
+        HttpResponse notModified = this.staticHeaders.checkNotModified(session, entry.getLastModified(), etag, cacheControl);
+        if (notModified != null) return notModified;
+
+        HttpResponse response = archive.respond(session, this.getEffectiveCompression(router), StandardHttpStatus.OK, entry, etag);
+        return this.staticHeaders.apply(response, entry.getLastModified(), null, cacheControl);
+    }
+
+    private HttpResponse respond(HttpSession session, HttpRouter router, String uri, StaticFile file) throws IOException {
+        String etag = this.staticHeaders.etag(file);
+        String cacheControl = this.staticHeaders.cacheControl(uri);
+
+        HttpResponse notModified = this.staticHeaders.checkNotModified(session, file.getLastModified(), etag, cacheControl);
+        if (notModified != null) return notModified;
 
-        return file;
+        // The ETag gets set by StaticCompression, it depends on the encoding.
+        HttpResponse response = this.staticCompression.respond(session, this.getEffectiveCompression(router), StandardHttpStatus.OK, file, etag);
+        return this.staticHeaders.apply(response, file.getLastModified(), null, cacheControl);
     }
 
 }
@@ -17,6 +17,7 @@ import co.casterlabs.commons.async.AsyncTask;
 import co.casterlabs.commons.async.promise.Promise;
 import co.casterlabs.commons.async.promise.PromiseResolver;
 import co.casterlabs.katana.router.http.HttpRouter;
+import co.casterlabs.katana.router.http.RoutePattern;
 import co.casterlabs.rakurai.json.Rson;
 import co.casterlabs.rakurai.json.annotating.JsonClass;
 import co.casterlabs.rakurai.json.annotating.JsonField;
@@ -42,6 +43,8 @@ public class WebhookToWSServlet extends HttpServlet {
     private static final Map<String, PromiseResolver<ResultData>> resultPromises = new HashMap<>();
 
     private @Getter HostConfiguration config;
+    private @Getter RoutePattern httpRoute;
+    private @Getter RoutePattern websocketRoute;
 
     public WebhookToWSServlet() {
         super("WEBHOOK_TO_WS");
@@ -51,6 +54,8 @@ public class WebhookToWSServlet extends HttpServlet {
     @Override
     public void init(JsonObject config) throws JsonValidationException, JsonParseException {
         this.config = Rson.DEFAULT.fromJson(config, HostConfiguration.class);
+        this.httpRoute = RoutePattern.prefix(this.config.path);
+        this.websocketRoute = RoutePattern.prefix(this.config.path + '/' + this.config.websocketSecret); // Don't handle if the secret doesn't match.
     }
 
     @JsonClass(exposeAll = true)
@@ -72,11 +77,6 @@ public class WebhookToWSServlet extends HttpServlet {
         }
     }
 
-    @Override
-    public boolean matchHttp(HttpSession session, HttpRouter router) {
-        return session.uri().path.startsWith(this.config.path);
-    }
-
     @SneakyThrows
     @Override
     public HttpResponse serveHttp(HttpSession session, HttpRouter router) {
@@ -138,18 +138,6 @@ public class WebhookToWSServlet extends HttpServlet {
             .putAllHeaders(result.headers);
     }
 
-    @Override
-    public boolean matchWebsocket(WebsocketSession session, HttpRouter router) {
-        if (!session.uri().path.startsWith(this.config.path)) return false;
-
-        // If the secret doesn't match don't handle.
-        if (!session.uri().path.startsWith(this.config.path + '/' + this.config.websocketSecret)) {
-            return false;
-        }
-
-        return true;
-    }
-
     @Override
     public WebsocketResponse serveWebsocket(WebsocketSession session, HttpRouter router) {
         return WebsocketResponse.accept(new WebsocketListener() {
@@ -449,7 +449,7 @@ public class UIRouter implements KatanaRouter<UIRouterConfiguration>, EndpointPr
                             String key = entry.getKey();
                             JsonElement value = entry.getValue();
 
-                            if (!formServletConfig.containsKey(key)) {
+                            if (!formServletConfig.containsKey(key) || key.equals("proxy_url")) {
                                 continue;
                             }
 
@@ -472,6 +472,22 @@ public class UIRouter implements KatanaRouter<UIRouterConfiguration>, EndpointPr
                         servletConfig.put("hostnames", formArrayValue(formServletConfig.get("hostnames")));
                         servletConfig.put("cors_allowed_hosts", formArrayValue(formServletConfig.get("cors_allowed_hosts")));
 
+                        if (formServletConfig.containsKey("proxy_url")) {
+                            servletConfig.put("proxy_url", formProxyTargetsValue(formServletConfig.get("proxy_url")));
+                        }
+
+                        if (formServletConfig.containsKey("response_compression")) {
+                            JsonObject formCompression = formServletConfig.getObject("response_compression");
+                            servletConfig.put(
+                                "response_compression",
+                                new JsonObject()
+                                    .put("enabled", formCheckboxValue(formCompression.get("enabled")))
+                                    .put("level", formIntegerValue(formCompression.get("level")))
+                                    .put("min_size", formIntegerValue(formCompression.get("min_size")))
+                                    .put("mime_types", formArrayValue(formCompression.get("mime_types")))
+                            );
+                        }
+
                         routerServlets.add(servletConfig);
                     }
                 }
@@ -580,6 +596,44 @@ public class UIRouter implements KatanaRouter<UIRouterConfiguration>, EndpointPr
         return Integer.parseInt(e.getAsString());
     }
 
+    /**
+     * The form sends targets as `proxy_url.<id>.url` and `proxy_url.<id>.weight`,
+     * we write them back in the shortest form that ProxyServlet accepts.
+     */
+    private static JsonElement formProxyTargetsValue(JsonElement e) {
+        if (!e.isJsonObject()) {
+            return e; // Already a url (or a list of them).
+        }
+
+        JsonArray targets = new JsonArray();
+        boolean isWeighted = false;
+
+        for (JsonElement value : e.getAsObject().values()) {
+            JsonObject target = value.getAsObject();
+            String url = target.getString("url");
+            if ((url == null) || url.isBlank()) continue;
+
+            int weight = target.containsKey("weight") ? formIntegerValue(target.get("weight")) : 1;
+            if (weight != 1) isWeighted = true;
+
+            targets.add(
+                new JsonObject()
+                    .put("url", url.trim())
+                    .put("weight", weight)
+            );
+        }
+
+        if (isWeighted) {
+            return targets;
+        }
+
+        JsonArray urls = new JsonArray();
+        for (JsonElement target : targets) {
+            urls.add(target.getAsObject().getString("url"));
+        }
+        return urls.size() == 1 ? urls.get(0) : urls;
+    }
+
     private static JsonArray formArrayValue(JsonElement e) {
         if (e == null || e.isJsonNull()) {
             return JsonArray.EMPTY_ARRAY;
@@ -0,0 +1,96 @@
+package co.casterlabs.katana.router.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+public class HttpUtilTest {
+
+    @Test
+    public void normalizesSegments() {
+        assertEquals("/", HttpUtil.normalizePath(""));
+        assertEquals("/", HttpUtil.normalizePath("/"));
+        assertEquals("/a/b", HttpUtil.normalizePath("/a/b/"));
+        assertEquals("/a/b", HttpUtil.normalizePath("//a///b"));
+        assertEquals("/a/b", HttpUtil.normalizePath("/a/./b/."));
+        assertEquals("/a/c", HttpUtil.normalizePath("/a/b/../c"));
+        assertEquals("/b", HttpUtil.normalizePath("a\\..\\b"));
+    }
+
+    @Test
+    public void dotDotStopsAtTheRoot() {
+        assertEquals("/", HttpUtil.normalizePath("/.."));
+        assertEquals("/", HttpUtil.normalizePath("/../.."));
+        assertEquals("/etc/passwd", HttpUtil.normalizePath("/../../etc/passwd"));
+        assertEquals("/etc/passwd", HttpUtil.normalizePath("/a/../../etc/passwd"));
+        assertEquals("/etc/passwd", HttpUtil.normalizePath("\\..\\..\\etc\\passwd"));
+    }
+
+    @Test
+    public void escapedDotsAreSegments() {
+        assertEquals("/b", HttpUtil.normalizePath("/a/%2e%2e/b"));
+        assertEquals("/b", HttpUtil.normalizePath("/a/%2E%2E/b"));
+        assertEquals("/b", HttpUtil.normalizePath("/a/.%2e/b"));
+        assertEquals("/etc/passwd", HttpUtil.normalizePath("/%2e%2e/%2e%2e/etc/passwd"));
+        assertEquals("/a", HttpUtil.normalizePath("/a/%2e"));
+
+        // Not a dot segment, just a weird name.
+        assertEquals("/a/...", HttpUtil.normalizePath("/a/%2e%2e%2e"));
+    }
+
+    @Test
+    public void escapedSeparatorsAreSeparators() {
+        assertEquals("/a/b", HttpUtil.normalizePath("/a%2fb"));
+        assertEquals("/a/b", HttpUtil.normalizePath("/a%2Fb"));
+        assertEquals("/a/b", HttpUtil.normalizePath("/a%5cb"));
+        assertEquals("/etc/passwd", HttpUtil.normalizePath("/a/..%2f..%2fetc%2fpasswd"));
+        assertEquals("/etc/passwd", HttpUtil.normalizePath("/%2e%2e%2f%2e%2e%5cetc/passwd"));
+    }
+
+    @Test
+    public void decodesUtf8() {
+        assertEquals("/a b", HttpUtil.normalizePath("/a%20b"));
+        assertEquals("/café", HttpUtil.normalizePath("/caf%C3%A9"));
+        assertEquals("/€", HttpUtil.normalizePath("/%E2%82%AC"));
+        assertEquals("/😀", HttpUtil.normalizePath("/%F0%9F%98%80"));
+        assertEquals("/café", HttpUtil.normalizePath("/café")); // Already decoded.
+    }
+
+    @Test
+    public void plusIsNotASpace() {
+        assertEquals("/a+b", HttpUtil.normalizePath("/a+b"));
+        assertEquals("/a+b", HttpUtil.normalizePath("/a%2bb"));
+    }
+
+    @Test
+    public void rejectsInvalidEscapes() {
+        assertNull(HttpUtil.normalizePath("/%"));
+        assertNull(HttpUtil.normalizePath("/a%"));
+        assertNull(HttpUtil.normalizePath("/%2"));
+        assertNull(HttpUtil.normalizePath("/%zz"));
+        assertNull(HttpUtil.normalizePath("/%2g"));
+        assertNull(HttpUtil.normalizePath("/%%32%65"));
+    }
+
+    @Test
+    public void rejectsInvalidUtf8() {
+        assertNull(HttpUtil.normalizePath("/%C3")); // Truncated.
+        assertNull(HttpUtil.normalizePath("/%C3A9")); // Unescaped continuation.
+        assertNull(HttpUtil.normalizePath("/%C3%41")); // Not a continuation.
+        assertNull(HttpUtil.normalizePath("/%A9")); // Lone continuation.
+        assertNull(HttpUtil.normalizePath("/%FF"));
+        assertNull(HttpUtil.normalizePath("/%C0%AE")); // Overlong '.'
+        assertNull(HttpUtil.normalizePath("/%C0%AF")); // Overlong '/'
+        assertNull(HttpUtil.normalizePath("/%E0%80%AE")); // Overlong '.'
+        assertNull(HttpUtil.normalizePath("/%ED%A0%80")); // Surrogate.
+        assertNull(HttpUtil.normalizePath("/%F4%90%80%80")); // Past U+10FFFF.
+    }
+
+    @Test
+    public void rejectsNul() {
+        assertNull(HttpUtil.normalizePath("/a%00.html"));
+        assertNull(HttpUtil.normalizePath("/a\u0000.html"));
+    }
+
+}
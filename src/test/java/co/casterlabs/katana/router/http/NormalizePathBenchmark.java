@@ -0,0 +1,59 @@
+package co.casterlabs.katana.router.http;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * normalizePath vs the URLDecoder call StaticServlet used to make. Not run by
+ * the tests, run the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NormalizePathBenchmark {
+
+    @Param({
+            "/index.html",
+            "/assets/js/app.3f9a1c.js",
+            "/docs/getting%20started/caf%C3%A9.html",
+            "/a/./b/../c//d/%2e%2e/e.png"
+    })
+    public String path;
+
+    @Benchmark
+    public String normalizePath() {
+        return HttpUtil.normalizePath(this.path);
+    }
+
+    @Benchmark
+    public String urlDecoder() {
+        return URLDecoder.decode(this.path, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+            new OptionsBuilder()
+                .include(NormalizePathBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+
+}